@@ -0,0 +1,127 @@
+package com.ontotext.trree.plugin.proof;
+
+import java.util.HashMap;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.ontotext.trree.sdk.StatementIterator;
+
+/**
+ * Iterates the rows of an explained statement the way a query does: next() on the explain task and,
+ * in {@link #bind}, one interpret() call per accessor predicate and row to bind the premise. Each call finds the
+ * task through the last-task memo of the request and returns a new single statement iterator.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class ExplainIterBenchmark {
+	private static final long REIFICATION_ID = -1;
+
+	@Param({"16", "256"})
+	int solutions;
+
+	// premises per solution
+	@Param({"2", "4"})
+	int width;
+
+	ProofPlugin plugin;
+	ProofPlugin.ContextImpl ctx;
+	SolutionStore store;
+	// the string keyed lookup the request context used before
+	HashMap<String, Object> attributes;
+
+	@Setup
+	public void setup() {
+		plugin = new ProofPlugin();
+		plugin.explainId = 100;
+		plugin.subjId = 101;
+		plugin.predId = 102;
+		plugin.objId = 103;
+		plugin.contextId = 104;
+		ctx = plugin.new ContextImpl();
+		store = new SolutionStore();
+		for (int i = 0; i < solutions; i++) {
+			store.begin(1);
+			for (int p = 0; p < width; p++)
+				store.add(1000 + i, 10 + p, 2000 + i * width + p, 1, 1);
+			store.commit();
+			store.keepDistinct(i, i);
+		}
+		store.seal();
+		attributes = new HashMap<String, Object>();
+	}
+
+	private ProofPlugin.ExplainIter task() {
+		ProofPlugin.ExplainIter task = plugin.new ExplainIter(ctx, REIFICATION_ID, plugin.explainId, 1, 2, 3, false, false, 0);
+		task.initialized = true;
+		task.setNode(store, 1, 2, 3, 0);
+		ctx.addTask(REIFICATION_ID, task);
+		return task;
+	}
+
+	@Benchmark
+	public void iterate(Blackhole blackhole) {
+		ProofPlugin.ExplainIter task = task();
+		while (task.next())
+			blackhole.consume(task.value(SolutionStore.SUBJ));
+		task.close();
+	}
+
+	@Benchmark
+	public void bind(Blackhole blackhole) {
+		ProofPlugin.ExplainIter task = task();
+		while (task.next()) {
+			bind(blackhole, plugin.subjId);
+			bind(blackhole, plugin.predId);
+			bind(blackhole, plugin.objId);
+			bind(blackhole, plugin.contextId);
+		}
+		task.close();
+	}
+
+	/**
+	 * evaluates an accessor pattern the way the query engine does
+	 */
+	private void bind(Blackhole blackhole, long predicate) {
+		StatementIterator iter = plugin.interpret(REIFICATION_ID, predicate, 0, 0, null, ctx);
+		while (iter.next())
+			blackhole.consume(iter.object);
+		iter.close();
+	}
+
+	@Benchmark
+	public void lookupLongKey(Blackhole blackhole) {
+		ProofPlugin.ExplainIter task = task();
+		while (task.next()) {
+			for (int i = 0; i < 4; i++)
+				blackhole.consume(ctx.getTask(REIFICATION_ID));
+		}
+		task.close();
+	}
+
+	@Benchmark
+	public void lookupStringKey(Blackhole blackhole) {
+		ProofPlugin.ExplainIter task = task();
+		attributes.put("storage" + REIFICATION_ID, task);
+		while (task.next()) {
+			for (int i = 0; i < 4; i++)
+				blackhole.consume(attributes.get("storage" + REIFICATION_ID));
+		}
+		task.close();
+	}
+}
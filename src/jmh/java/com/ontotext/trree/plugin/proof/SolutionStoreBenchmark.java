@@ -0,0 +1,133 @@
+package com.ontotext.trree.plugin.proof;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Collects the solutions reported by the inferencer the way {@link ProofPlugin.SolutionCollector#report} does:
+ * the premises of each match are appended to a store and the duplicates are dropped.
+ * Every second match repeats the previous one with its premises in reverse order, so half of them are duplicates.
+ * The list based layout the plugin used before is measured as a baseline.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class SolutionStoreBenchmark {
+	@Param({"1", "16", "256"})
+	int solutions;
+
+	// premises per solution
+	@Param({"1", "2", "4"})
+	int width;
+
+	// the premises of the reported matches, WIDTH values per premise
+	long[][] matches;
+	// the per thread store the collector reuses
+	SolutionStore scratch = new SolutionStore();
+
+	@Setup
+	public void setup() {
+		matches = new long[solutions * 2][];
+		for (int i = 0; i < solutions; i++) {
+			long[] match = new long[width * SolutionStore.WIDTH];
+			long[] reversed = new long[match.length];
+			for (int p = 0; p < width; p++) {
+				long[] premise = {1000 + i, 10 + p, 2000 + i * width + p, 1, 1};
+				System.arraycopy(premise, 0, match, p * SolutionStore.WIDTH, SolutionStore.WIDTH);
+				System.arraycopy(premise, 0, reversed, (width - 1 - p) * SolutionStore.WIDTH, SolutionStore.WIDTH);
+			}
+			matches[i * 2] = match;
+			matches[i * 2 + 1] = reversed;
+		}
+	}
+
+	@Benchmark
+	public SolutionStore store() {
+		SolutionStore store = scratch;
+		store.reset();
+		for (long[] match : matches) {
+			store.begin(1);
+			for (int p = 0; p < match.length; p += SolutionStore.WIDTH)
+				store.add(match[p], match[p + 1], match[p + 2], match[p + 3], match[p + 4]);
+			store.commit();
+		}
+		int kept = 0;
+		for (int i = 0; i < store.size(); i++) {
+			if (store.keepDistinct(i, kept))
+				kept++;
+		}
+		store.truncate(kept);
+		return store.copy();
+	}
+
+	@Benchmark
+	public ArrayList<ListSolution> lists() {
+		ArrayList<ListSolution> list = new ArrayList<ListSolution>();
+		HashSet<ListSolution> reported = new HashSet<ListSolution>();
+		for (long[] match : matches) {
+			ListSolution solution = new ListSolution("rule");
+			for (int p = 0; p < match.length; p += SolutionStore.WIDTH)
+				solution.premises.add(Arrays.copyOfRange(match, p, p + SolutionStore.WIDTH));
+			if (reported.add(solution))
+				list.add(solution);
+		}
+		return list;
+	}
+
+	/**
+	 * a solution kept as a list of premise arrays, equal to another one with the same premises in any order
+	 */
+	static class ListSolution {
+		final String rule;
+		final ArrayList<long[]> premises = new ArrayList<long[]>();
+		ListSolution(String rule) {
+			this.rule = rule;
+		}
+		private long[][] sorted() {
+			long[][] sorted = premises.toArray(new long[premises.size()][]);
+			Arrays.sort(sorted, new java.util.Comparator<long[]>() {
+				@Override
+				public int compare(long[] a, long[] b) {
+					for (int i = 0; i < a.length; i++) {
+						if (a[i] != b[i])
+							return a[i] < b[i] ? -1 : 1;
+					}
+					return 0;
+				}
+			});
+			return sorted;
+		}
+		@Override
+		public int hashCode() {
+			int sum = 0;
+			for (long[] premise : premises)
+				sum += Arrays.hashCode(premise);
+			return 31 * rule.hashCode() + sum;
+		}
+		@Override
+		public boolean equals(Object obj) {
+			if (!(obj instanceof ListSolution))
+				return false;
+			ListSolution other = (ListSolution)obj;
+			return rule.equals(other.rule) && premises.size() == other.premises.size() &&
+					Arrays.deepEquals(sorted(), other.sorted());
+		}
+	}
+}
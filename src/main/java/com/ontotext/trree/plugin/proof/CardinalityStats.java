@@ -0,0 +1,74 @@
+package com.ontotext.trree.plugin.proof;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Observed number of solutions and premises of the explained statements, by predicate, used to estimate
+ * the number of rows an explain pattern returns. The counts are collected as the explains run, so the
+ * estimates follow the data and the ruleset of the repository instead of being fixed.
+ *
+ * The predicates are few in most datasets, but they are not bounded, so beyond {@link #MAX_PREDICATES}
+ * the statements are counted in the totals only.
+ */
+class CardinalityStats {
+	// used until there is some statement explained
+	static final double DEFAULT_ROWS = 10;
+	static final double DEFAULT_ROWS_PER_SOLUTION = 2;
+	private static final int MAX_PREDICATES = 10000;
+
+	static final class Counts {
+		final LongAdder statements = new LongAdder();
+		final LongAdder solutions = new LongAdder();
+		final LongAdder premises = new LongAdder();
+
+		void add(int solutions, int premises) {
+			this.statements.increment();
+			this.solutions.add(solutions);
+			this.premises.add(premises);
+		}
+	}
+
+	private final ConcurrentHashMap<Long, Counts> byPredicate = new ConcurrentHashMap<Long, Counts>();
+	private final Counts total = new Counts();
+
+	/**
+	 * a statement has been explained completely
+	 */
+	void explained(long pred, int solutions, int premises) {
+		total.add(solutions, premises);
+		Counts counts = byPredicate.get(pred);
+		if (counts == null) {
+			if (byPredicate.size() >= MAX_PREDICATES)
+				return;
+			Counts created = new Counts();
+			counts = byPredicate.putIfAbsent(pred, created);
+			if (counts == null)
+				counts = created;
+		}
+		counts.add(solutions, premises);
+	}
+
+	/**
+	 * @return the average number of premises of a statement with the predicate, i.e. the rows of pr:explain
+	 */
+	double rows(long pred) {
+		Counts counts = counts(pred);
+		long statements = counts.statements.sum();
+		return statements == 0 ? DEFAULT_ROWS : (double)counts.premises.sum() / statements;
+	}
+
+	/**
+	 * @return the average number of premises of a solution of a statement with the predicate
+	 */
+	double rowsPerSolution(long pred) {
+		Counts counts = counts(pred);
+		long solutions = counts.solutions.sum();
+		return solutions == 0 ? DEFAULT_ROWS_PER_SOLUTION : (double)counts.premises.sum() / solutions;
+	}
+
+	private Counts counts(long pred) {
+		Counts counts = byPredicate.get(pred);
+		return counts != null && counts.statements.sum() > 0 ? counts : total;
+	}
+}
@@ -0,0 +1,131 @@
+package com.ontotext.trree.plugin.proof;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Limits on the work the explains of a single request may do: the wall-clock time since the request has started,
+ * the number of matches reported by the inferencer and the memory taken by the solutions. The memory is what the
+ * request holds at a time: the solutions kept by its open iterators, which let them go once closed, and the ones
+ * being collected.
+ *
+ * The global limits are set through system properties and apply to every request, a query may lower them
+ * for itself through pr:budget. Once a limit is reached the inferencer is stopped at the next reported match
+ * and the solutions collected so far are returned marked as partial.
+ *
+ * The explains of a request may run in parallel, so the budget is thread safe.
+ */
+class ExplainBudget {
+	// system properties with the global limits, 0 or missing for no limit
+	static final String TIME_PROPERTY = "graphdb.proof.budget.time";
+	static final String MATCHES_PROPERTY = "graphdb.proof.budget.matches";
+	static final String MEMORY_PROPERTY = "graphdb.proof.budget.memory";
+
+	// the names of the limits in pr:budget
+	static final String TIME = "timeMillis";
+	static final String MATCHES = "matches";
+	static final String MEMORY = "memoryMB";
+
+	private final long start;
+	// nanoTime by which the explains should be done, 0 for no limit
+	private volatile long deadline = 0;
+	private volatile long maxMatches = 0;
+	private volatile long maxBytes = 0;
+
+	private final AtomicLong matches = new AtomicLong();
+	// the bytes of the solutions held by the request
+	private final AtomicLong held = new AtomicLong();
+	private volatile boolean exhausted = false;
+
+	ExplainBudget(long timeMillis, long maxMatches, long maxMegabytes) {
+		this.start = System.nanoTime();
+		setTime(timeMillis);
+		setMatches(maxMatches);
+		setMemory(maxMegabytes);
+	}
+
+	/**
+	 * @return a budget with the global limits, starting now
+	 */
+	static ExplainBudget global() {
+		return new ExplainBudget(Long.getLong(TIME_PROPERTY, 0), Long.getLong(MATCHES_PROPERTY, 0),
+				Long.getLong(MEMORY_PROPERTY, 0));
+	}
+
+	/**
+	 * sets one of the limits by its pr:budget name, the limit may only be lowered
+	 * @return false if the name is unknown or the value is not positive
+	 */
+	boolean set(String name, long value) {
+		if (value <= 0)
+			return false;
+		if (TIME.equals(name))
+			setTime(value);
+		else if (MATCHES.equals(name))
+			setMatches(value);
+		else if (MEMORY.equals(name))
+			setMemory(value);
+		else
+			return false;
+		return true;
+	}
+
+	private void setTime(long millis) {
+		if (millis <= 0)
+			return;
+		long deadline = start + TimeUnit.MILLISECONDS.toNanos(millis);
+		if (this.deadline == 0 || deadline - this.deadline < 0)
+			this.deadline = deadline;
+	}
+
+	private void setMatches(long matches) {
+		if (matches > 0 && (maxMatches == 0 || matches < maxMatches))
+			maxMatches = matches;
+	}
+
+	private void setMemory(long megabytes) {
+		long bytes = megabytes << 20;
+		if (megabytes > 0 && (maxBytes == 0 || bytes < maxBytes))
+			maxBytes = bytes;
+	}
+
+	/**
+	 * accounts a match reported by the inferencer while collecting solutions of that many bytes
+	 * @return false if a limit has been reached
+	 */
+	boolean charge(int matches, long collecting) {
+		long total = this.matches.addAndGet(matches);
+		if ((maxMatches > 0 && total >= maxMatches) || (maxBytes > 0 && held.get() + collecting >= maxBytes))
+			exhausted = true;
+		return !isExhausted();
+	}
+
+	/**
+	 * accounts solutions of that many bytes the request holds on to until they are {@link #release}-d
+	 */
+	void hold(long bytes) {
+		long used = held.addAndGet(bytes);
+		if (maxBytes > 0 && used >= maxBytes)
+			exhausted = true;
+	}
+
+	void release(long bytes) {
+		held.addAndGet(-bytes);
+	}
+
+	/**
+	 * @return the bytes of the solutions held by the request
+	 */
+	long held() {
+		return held.get();
+	}
+
+	/**
+	 * @return true if a limit has been reached, cheap enough to be checked for every match
+	 */
+	boolean isExhausted() {
+		if (!exhausted && deadline != 0 && System.nanoTime() - deadline >= 0)
+			exhausted = true;
+		return exhausted;
+	}
+}
@@ -0,0 +1,111 @@
+package com.ontotext.trree.plugin.proof;
+
+import java.util.Arrays;
+
+/**
+ * Open addressing hash map with primitive long keys, used to find the running explain tasks by the id of
+ * their solution designator without boxing the id or building a string key per result row.
+ * Removed entries are backward shifted, so there are no tombstones and a map that sees many short lived
+ * tasks does not degrade. The key 0 is reserved for the empty slots, which is fine as 0 is never an entity id.
+ *
+ * Not thread safe, it is used by the request thread only.
+ */
+final class LongMap<V> {
+	private long[] keys;
+	private Object[] values;
+	private int size = 0;
+
+	LongMap() {
+		this(16);
+	}
+
+	LongMap(int capacity) {
+		int length = Integer.highestOneBit(Math.max(4, capacity - 1)) << 1;
+		keys = new long[length];
+		values = new Object[length];
+	}
+
+	@SuppressWarnings("unchecked")
+	V get(long key) {
+		int mask = keys.length - 1;
+		for (int slot = slot(key, mask); keys[slot] != 0; slot = (slot + 1) & mask) {
+			if (keys[slot] == key)
+				return (V)values[slot];
+		}
+		return null;
+	}
+
+	void put(long key, V value) {
+		if (key == 0)
+			throw new IllegalArgumentException("0 is not a valid key");
+		int mask = keys.length - 1;
+		int slot = slot(key, mask);
+		for (; keys[slot] != 0; slot = (slot + 1) & mask) {
+			if (keys[slot] == key) {
+				values[slot] = value;
+				return;
+			}
+		}
+		keys[slot] = key;
+		values[slot] = value;
+		if (++size * 2 > keys.length)
+			grow();
+	}
+
+	@SuppressWarnings("unchecked")
+	V remove(long key) {
+		int mask = keys.length - 1;
+		int slot = slot(key, mask);
+		for (; keys[slot] != key; slot = (slot + 1) & mask) {
+			if (keys[slot] == 0)
+				return null;
+		}
+		V removed = (V)values[slot];
+		// shift back the entries of the run that would not be found after the slot is emptied
+		int hole = slot;
+		for (int next = (hole + 1) & mask; keys[next] != 0; next = (next + 1) & mask) {
+			int home = slot(keys[next], mask);
+			if (((next - home) & mask) >= ((next - hole) & mask)) {
+				keys[hole] = keys[next];
+				values[hole] = values[next];
+				hole = next;
+			}
+		}
+		keys[hole] = 0;
+		values[hole] = null;
+		size--;
+		return removed;
+	}
+
+	int size() {
+		return size;
+	}
+
+	void clear() {
+		Arrays.fill(keys, 0);
+		Arrays.fill(values, null);
+		size = 0;
+	}
+
+	private void grow() {
+		long[] oldKeys = keys;
+		Object[] oldValues = values;
+		keys = new long[oldKeys.length * 2];
+		values = new Object[oldKeys.length * 2];
+		int mask = keys.length - 1;
+		for (int i = 0; i < oldKeys.length; i++) {
+			if (oldKeys[i] == 0)
+				continue;
+			int slot = slot(oldKeys[i], mask);
+			while (keys[slot] != 0)
+				slot = (slot + 1) & mask;
+			keys[slot] = oldKeys[i];
+			values[slot] = oldValues[i];
+		}
+	}
+
+	private static int slot(long key, int mask) {
+		long h = key * 0x9E3779B97F4A7C15L;
+		return (int)(h ^ (h >>> 32)) & mask;
+	}
+}
@@ -0,0 +1,140 @@
+package com.ontotext.trree.plugin.proof;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+
+import com.ontotext.trree.AbstractRepositoryConnection;
+import com.ontotext.trree.StatementIdIterator;
+import com.ontotext.trree.SystemGraphs;
+
+/**
+ * Request scoped memo of the contexts of the premises matched by the inferencer.
+ *
+ * The inferencer reports each premise with the context it has been matched in (onto:explicit or
+ * onto:implicit), while we prefer to show a named graph where the same triple exists, if there is one.
+ * The premises are resolved in batches: the distinct triples that are not yet known are collected
+ * first and then looked up in index order, so each distinct triple hits the index once per request.
+ * The same lookup tells whether the triple is explicit, which is what the recursive explain needs
+ * to decide which premises to expand further.
+ *
+ * The resolver is shared by the explain tasks of the request that may run in parallel, so it is synchronized.
+ *
+ * A resolver may be restricted to a set of contexts, for the explains that accept only the solutions with premises in
+ * those graphs. It then looks for the triple in one of them, as the same triple may be in several named graphs,
+ * and tells whether a premise is in an allowed context through the same memo.
+ */
+class PremiseResolver {
+	// flags of a resolved triple
+	private static final int HAS_CONTEXT = 1;
+	private static final int EXPLICIT = 2;
+	// a bulk explain may go through a lot of distinct premises, so the memo is started over beyond that size
+	private static final int MAX_SIZE = 1000000;
+
+	private final AbstractRepositoryConnection conn;
+	private final int contextMask;
+	private final ProofStats stats;
+	// the sorted ids of the contexts the premises may come from, null for any
+	private final long[] allowed;
+	// triple -> {context, status, flags}
+	private final HashMap<Triple, long[]> resolved = new HashMap<Triple, long[]>();
+	private int lookups = 0;
+
+	PremiseResolver(AbstractRepositoryConnection conn, int contextMask, ProofStats stats) {
+		this(conn, contextMask, stats, null);
+	}
+
+	PremiseResolver(AbstractRepositoryConnection conn, int contextMask, ProofStats stats, long[] allowed) {
+		this.conn = conn;
+		this.contextMask = contextMask;
+		this.stats = stats;
+		this.allowed = allowed;
+	}
+
+	/**
+	 * replaces the context and status of the premises of the store in the range [from, to)
+	 * with the ones of an existing statement outside the explicit graph, if any
+	 */
+	synchronized void resolve(SolutionStore store, int from, int to) {
+		if (resolved.size() >= MAX_SIZE)
+			resolved.clear();
+		ArrayList<Triple> missing = null;
+		for (int i = from; i < to; i++) {
+			Triple key = new Triple(store.get(i, SolutionStore.SUBJ), store.get(i, SolutionStore.PRED), store.get(i, SolutionStore.OBJ));
+			if (!resolved.containsKey(key)) {
+				if (missing == null)
+					missing = new ArrayList<Triple>();
+				// reserve the key so a triple repeated within the batch is looked up once
+				resolved.put(key, null);
+				missing.add(key);
+			}
+		}
+		if (missing != null) {
+			Collections.sort(missing);
+			for (Triple key : missing)
+				resolved.put(key, lookup(key));
+		}
+		for (int i = from; i < to; i++) {
+			long[] found = resolved.get(new Triple(store.get(i, SolutionStore.SUBJ), store.get(i, SolutionStore.PRED), store.get(i, SolutionStore.OBJ)));
+			if ((found[2] & HAS_CONTEXT) != 0) {
+				store.set(i, SolutionStore.CONTEXT, found[0]);
+				store.set(i, SolutionStore.STATUS, found[1]);
+			}
+		}
+	}
+
+	/**
+	 * resolves the context of a single premise of the store
+	 * @return true if it is in one of the allowed contexts, or if the resolver is not restricted
+	 */
+	synchronized boolean isAllowed(SolutionStore store, int premise) {
+		resolve(store, premise, premise + 1);
+		return allowed == null || Arrays.binarySearch(allowed, store.get(premise, SolutionStore.CONTEXT)) >= 0;
+	}
+
+	/**
+	 * @return true if there is an explicit statement with the triple
+	 */
+	synchronized boolean isExplicit(long subj, long pred, long obj) {
+		Triple key = new Triple(subj, pred, obj);
+		long[] found = resolved.get(key);
+		if (found == null) {
+			if (resolved.size() >= MAX_SIZE)
+				resolved.clear();
+			found = lookup(key);
+			resolved.put(key, found);
+		}
+		return (found[2] & EXPLICIT) != 0;
+	}
+
+	private long[] lookup(Triple key) {
+		lookups++;
+		stats.premiseLookup();
+		long flags = 0;
+		// try finding an existing explicit or in-context with same subj, pred and obj
+		try (StatementIdIterator ctxIter = conn.getStatements(key.subj, key.pred, key.obj, true, 0, contextMask)) {
+			while (ctxIter.hasNext()) {
+				flags = EXPLICIT;
+				if (allowed != null) {
+					// the explicit graph is as good as a named one if it is allowed
+					if (Arrays.binarySearch(allowed, ctxIter.context) >= 0)
+						return new long[] {ctxIter.context, ctxIter.status, EXPLICIT | HAS_CONTEXT};
+				} else if (ctxIter.context != SystemGraphs.EXPLICIT_GRAPH.getId())
+					return new long[] {ctxIter.context, ctxIter.status, EXPLICIT | HAS_CONTEXT};
+				ctxIter.next();
+			}
+		}
+		// an explicit triple in none of the allowed contexts gets no context, rather than the one it has been matched in
+		if (allowed != null && flags == EXPLICIT)
+			return new long[] {0, 0, EXPLICIT | HAS_CONTEXT};
+		return new long[] {0, 0, flags};
+	}
+
+	/**
+	 * @return the number of index lookups done so far
+	 */
+	synchronized int getLookups() {
+		return lookups;
+	}
+}
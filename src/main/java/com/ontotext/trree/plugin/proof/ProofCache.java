@@ -0,0 +1,185 @@
+package com.ontotext.trree.plugin.proof;
+
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Repository wide cache of the deduplicated solutions reported by the inferencer
+ * for an inferred statement, keyed by (subject, predicate, object).
+ *
+ * The cache is bounded both by the number of statements and by the bytes their solutions take
+ * ({@link SolutionStore#bytes()}) and evicts the least recently used entries. It is kept consistent
+ * with the data by collecting the statements changed within a transaction and dropping
+ * the affected entries once the transaction completes:
+ * - a removed statement drops the entry of that statement and all entries that use it as a premise
+ * - an added statement may enable new derivations of any cached statement, so it drops all entries
+ *
+ * While a transaction is in progress nothing is stored, so a solution computed over
+ * uncommitted data never makes it to the cache.
+ */
+class ProofCache {
+	// system property with the maximum number of cached statements, 0 disables the cache
+	static final String SIZE_PROPERTY = "graphdb.proof.cache.size";
+	static final int DEFAULT_SIZE = 10000;
+	// system property with the maximum MB taken by the cached solutions
+	static final String MEMORY_PROPERTY = "graphdb.proof.cache.memory";
+	static final long DEFAULT_MEMORY = 256;
+	// above that many removed statements in a transaction we simply drop everything
+	private static final int MAX_TRACKED_REMOVALS = 10000;
+
+	private final int maxSize;
+	private final long maxBytes;
+	private final LinkedHashMap<Triple, SolutionStore> map = new LinkedHashMap<Triple, SolutionStore>(16, 0.75f, true);
+	// the bytes taken by the solutions in the map
+	private long bytes = 0;
+
+	// bumped on every invalidation, a solution computed before that is not stored
+	private long generation = 0;
+	private boolean inTransaction = false;
+	// changes collected during the current transaction
+	private boolean pendingAdd = false;
+	private boolean pendingClear = false;
+	private HashSet<Triple> pendingRemovals = new HashSet<Triple>();
+
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+	private final AtomicLong evictions = new AtomicLong();
+
+	ProofCache(int maxSize, long maxBytes) {
+		this.maxSize = maxSize;
+		this.maxBytes = maxBytes;
+	}
+
+	boolean isEnabled() {
+		return maxSize > 0;
+	}
+
+	/**
+	 * @return the cached solutions of the statement or null if the statement is not cached
+	 */
+	synchronized SolutionStore get(long subj, long pred, long obj) {
+		if (!isEnabled())
+			return null;
+		SolutionStore solutions = map.get(new Triple(subj, pred, obj));
+		if (solutions == null)
+			misses.incrementAndGet();
+		else
+			hits.incrementAndGet();
+		return solutions;
+	}
+
+	/**
+	 * the generation to pass to {@link #put} once the solutions are computed
+	 */
+	synchronized long generation() {
+		return generation;
+	}
+
+	/**
+	 * stores the solutions of the statement unless the cache has been invalidated since
+	 * the generation has been taken or a transaction is currently in progress.
+	 * Solutions that alone take more than the whole cache may are not stored.
+	 */
+	synchronized void put(long subj, long pred, long obj, SolutionStore solutions, long generation) {
+		if (!isEnabled() || inTransaction || generation != this.generation || solutions.bytes() > maxBytes)
+			return;
+		SolutionStore replaced = map.put(new Triple(subj, pred, obj), solutions);
+		bytes += solutions.bytes() - (replaced == null ? 0 : replaced.bytes());
+		Iterator<SolutionStore> eldest = map.values().iterator();
+		while (map.size() > maxSize || bytes > maxBytes) {
+			bytes -= eldest.next().bytes();
+			eldest.remove();
+			evictions.incrementAndGet();
+		}
+	}
+
+	synchronized void transactionStarted() {
+		inTransaction = true;
+	}
+
+	synchronized void statementAdded() {
+		pendingAdd = true;
+	}
+
+	synchronized void statementRemoved(long subj, long pred, long obj) {
+		if (pendingClear)
+			return;
+		if (pendingRemovals.size() >= MAX_TRACKED_REMOVALS) {
+			pendingClear = true;
+			pendingRemovals.clear();
+			return;
+		}
+		pendingRemovals.add(new Triple(subj, pred, obj));
+	}
+
+	/**
+	 * drops the entries affected by the changes of the completed transaction
+	 */
+	synchronized void transactionCompleted() {
+		if (pendingAdd || pendingClear) {
+			map.clear();
+			bytes = 0;
+		} else if (!pendingRemovals.isEmpty()) {
+			Iterator<Map.Entry<Triple, SolutionStore>> entries = map.entrySet().iterator();
+			while (entries.hasNext()) {
+				Map.Entry<Triple, SolutionStore> entry = entries.next();
+				if (pendingRemovals.contains(entry.getKey()) || usesAny(entry.getValue(), pendingRemovals)) {
+					bytes -= entry.getValue().bytes();
+					entries.remove();
+				}
+			}
+		}
+		generation++;
+		resetPending();
+	}
+
+	synchronized void transactionAborted() {
+		// nothing has changed but a put() might have been skipped, so just make sure we accept puts again
+		generation++;
+		resetPending();
+	}
+
+	private void resetPending() {
+		inTransaction = false;
+		pendingAdd = false;
+		pendingClear = false;
+		pendingRemovals = new HashSet<Triple>();
+	}
+
+	private static boolean usesAny(SolutionStore solutions, HashSet<Triple> keys) {
+		for (int p = 0; p < solutions.premiseCount(); p++) {
+			if (keys.contains(new Triple(solutions.get(p, SolutionStore.SUBJ), solutions.get(p, SolutionStore.PRED),
+					solutions.get(p, SolutionStore.OBJ))))
+				return true;
+		}
+		return false;
+	}
+
+	synchronized int size() {
+		return map.size();
+	}
+
+	synchronized long bytes() {
+		return bytes;
+	}
+
+	long getHits() {
+		return hits.get();
+	}
+
+	long getMisses() {
+		return misses.get();
+	}
+
+	long getEvictions() {
+		return evictions.get();
+	}
+
+	@Override
+	public String toString() {
+		return "size=" + size() + ", bytes=" + bytes() + ", hits=" + getHits() + ", misses=" + getMisses() + ", evictions=" + getEvictions();
+	}
+}
@@ -0,0 +1,231 @@
+package com.ontotext.trree.plugin.proof;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+
+import org.eclipse.rdf4j.model.Value;
+import org.eclipse.rdf4j.model.impl.SimpleValueFactory;
+import org.eclipse.rdf4j.rio.ntriples.NTriplesUtil;
+
+import com.ontotext.trree.sdk.Entities;
+
+/**
+ * Writes the solutions of explained statements to a file, one statement at a time through a fixed size buffer,
+ * so the memory does not depend on the number of statements.
+ *
+ * The N-Quads-star format (N-Quads with the quoted triples of RDF-star) describes each solution with a blank node,
+ * using a quoted triple for each statement:
+ * <pre>
+ * _:s1 pr:explains &lt;&lt; s p o &gt;&gt; .
+ * _:s1 pr:rule "rule" .
+ * _:s1 pr:premise &lt;&lt; s p o &gt;&gt; context .
+ * </pre>
+ * where the graph of a premise quad is the context of the premise. An export cut short by the budget of the query
+ * ends with
+ * <pre>
+ * _:export pr:partial true .
+ * </pre>
+ *
+ * The binary format keeps the entity ids, so it is much smaller but meaningful only for the same repository.
+ * It is a sequence of big-endian records after the magic and the version ints:
+ * - RULE: byte 3, the name as UTF-8 with a short length, the statements refer to the rules by the order of these records
+ * - STATEMENT: byte 1, subject, predicate and object longs, the number of solutions and for each of them
+ *   the rule, the number of premises and the subject, predicate, object and context longs of each premise
+ * - PARTIAL: byte 4, the last record of an export cut short by the budget of the query
+ */
+class ProofExporter implements Closeable {
+	enum Format {
+		NQUADS_STAR("nquads-star"), BINARY("binary");
+
+		// the name of the format in pr:exportProofs
+		final String label;
+
+		Format(String label) {
+			this.label = label;
+		}
+
+		/**
+		 * @return the format by name or null if it is unknown
+		 */
+		static Format of(String name) {
+			for (Format format : values()) {
+				if (format.label.equalsIgnoreCase(name))
+					return format;
+			}
+			return null;
+		}
+	}
+
+	private static final int MAGIC = 0x50525846;
+	private static final int VERSION = 1;
+	private static final byte STATEMENT = 1, RULE = 3, PARTIAL = 4;
+	private static final int BUFFER_SIZE = 1 << 16;
+
+	private final FileChannel channel;
+	private final Format format;
+	private final Entities entities;
+	private final RuleIndex rules;
+	private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+	// binary: the ids of the rules written already
+	private final HashMap<String, Integer> ruleIds = new HashMap<String, Integer>();
+	// n-quads-star: the lines are built here
+	private final StringBuilder line = new StringBuilder();
+	private long statements = 0;
+	private long solutions = 0;
+
+	ProofExporter(File file, Format format, Entities entities, RuleIndex rules) throws IOException {
+		this.channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+				StandardOpenOption.TRUNCATE_EXISTING);
+		this.format = format;
+		this.entities = entities;
+		this.rules = rules;
+		if (format == Format.BINARY) {
+			buffer.putInt(MAGIC);
+			buffer.putInt(VERSION);
+		}
+	}
+
+	void write(long subj, long pred, long obj, SolutionStore store) throws IOException {
+		if (format == Format.BINARY)
+			writeBinary(subj, pred, obj, store);
+		else
+			writeNQuadsStar(subj, pred, obj, store);
+		statements++;
+		solutions += store.size();
+	}
+
+	private void writeBinary(long subj, long pred, long obj, SolutionStore store) throws IOException {
+		int[] ids = new int[store.size()];
+		for (int i = 0; i < store.size(); i++)
+			ids[i] = rule(rules.name(store.rule(i)));
+		reserve(1 + 3 * 8 + 4);
+		buffer.put(STATEMENT);
+		buffer.putLong(subj);
+		buffer.putLong(pred);
+		buffer.putLong(obj);
+		buffer.putInt(store.size());
+		for (int i = 0; i < store.size(); i++) {
+			reserve(8);
+			buffer.putInt(ids[i]);
+			buffer.putInt(store.end(i) - store.start(i));
+			for (int p = store.start(i); p < store.end(i); p++) {
+				reserve(4 * 8);
+				buffer.putLong(store.get(p, SolutionStore.SUBJ));
+				buffer.putLong(store.get(p, SolutionStore.PRED));
+				buffer.putLong(store.get(p, SolutionStore.OBJ));
+				buffer.putLong(store.get(p, SolutionStore.CONTEXT));
+			}
+		}
+	}
+
+	/**
+	 * marks the export as cut short, nothing may be written after it
+	 */
+	void partial() throws IOException {
+		if (format == Format.BINARY) {
+			reserve(1);
+			buffer.put(PARTIAL);
+		} else {
+			line.setLength(0);
+			line.append("_:export <").append(ProofPlugin.NAMESPACE).append("partial> ")
+					.append(NTriplesUtil.toNTriplesString(SimpleValueFactory.getInstance().createLiteral(true))).append(" .\n");
+			writeLine();
+		}
+	}
+
+	private int rule(String name) throws IOException {
+		Integer id = ruleIds.get(name);
+		if (id == null) {
+			byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+			reserve(3 + bytes.length);
+			buffer.put(RULE);
+			buffer.putShort((short)bytes.length);
+			buffer.put(bytes);
+			id = ruleIds.size();
+			ruleIds.put(name, id);
+		}
+		return id;
+	}
+
+	private void writeNQuadsStar(long subj, long pred, long obj, SolutionStore store) throws IOException {
+		String explained = triple(subj, pred, obj);
+		for (int i = 0; i < store.size(); i++) {
+			String node = "_:s" + (solutions + i + 1);
+			line.setLength(0);
+			line.append(node).append(" <").append(ProofPlugin.NAMESPACE).append("explains> ").append(explained).append(" .\n");
+			line.append(node).append(" <").append(ProofPlugin.NAMESPACE).append("rule> ")
+					.append(NTriplesUtil.toNTriplesString(SimpleValueFactory.getInstance().createLiteral(rules.name(store.rule(i))))).append(" .\n");
+			writeLine();
+			for (int p = store.start(i); p < store.end(i); p++) {
+				line.setLength(0);
+				line.append(node).append(" <").append(ProofPlugin.NAMESPACE).append("premise> ");
+				line.append(triple(store.get(p, SolutionStore.SUBJ), store.get(p, SolutionStore.PRED), store.get(p, SolutionStore.OBJ)));
+				long context = store.get(p, SolutionStore.CONTEXT);
+				Value graph = context == 0 ? null : entities.get(context);
+				if (graph != null)
+					line.append(' ').append(NTriplesUtil.toNTriplesString(graph));
+				line.append(" .\n");
+				writeLine();
+			}
+		}
+	}
+
+	private String triple(long subj, long pred, long obj) {
+		return "<< " + term(subj) + " " + term(pred) + " " + term(obj) + " >>";
+	}
+
+	private String term(long id) {
+		return NTriplesUtil.toNTriplesString(entities.get(id));
+	}
+
+	private void writeLine() throws IOException {
+		byte[] bytes = line.toString().getBytes(StandardCharsets.UTF_8);
+		int offset = 0;
+		while (offset < bytes.length) {
+			if (!buffer.hasRemaining())
+				flush();
+			int length = Math.min(buffer.remaining(), bytes.length - offset);
+			buffer.put(bytes, offset, length);
+			offset += length;
+		}
+	}
+
+	/**
+	 * makes sure the buffer has room for that many bytes, which should be well below its size
+	 */
+	private void reserve(int bytes) throws IOException {
+		if (buffer.remaining() < bytes)
+			flush();
+	}
+
+	private void flush() throws IOException {
+		buffer.flip();
+		while (buffer.hasRemaining())
+			channel.write(buffer);
+		buffer.clear();
+	}
+
+	long getStatements() {
+		return statements;
+	}
+
+	long getSolutions() {
+		return solutions;
+	}
+
+	@Override
+	public void close() throws IOException {
+		try {
+			flush();
+			channel.force(false);
+		} finally {
+			channel.close();
+		}
+	}
+}
@@ -1,11 +1,33 @@
 package com.ontotext.trree.plugin.proof;
 
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
 
 import org.eclipse.rdf4j.model.IRI;
+import org.eclipse.rdf4j.model.Literal;
+import org.eclipse.rdf4j.model.Value;
 import org.eclipse.rdf4j.model.impl.SimpleValueFactory;
+import org.eclipse.rdf4j.model.vocabulary.OWL;
+import org.eclipse.rdf4j.model.vocabulary.RDF;
+import org.eclipse.rdf4j.model.vocabulary.XSD;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -13,20 +35,23 @@ import com.ontotext.trree.AbstractInferencer;
 import com.ontotext.trree.AbstractRepositoryConnection;
 import com.ontotext.trree.ReportSupportedSolution;
 import com.ontotext.trree.StatementIdIterator;
-import com.ontotext.trree.SystemGraphs;
 import com.ontotext.trree.query.QueryResultIterator;
 import com.ontotext.trree.query.StatementSource;
+import com.ontotext.trree.sdk.Entities;
 import com.ontotext.trree.sdk.InitReason;
 import com.ontotext.trree.sdk.ListPatternInterpreter;
 import com.ontotext.trree.sdk.PatternInterpreter;
 import com.ontotext.trree.sdk.PluginBase;
 import com.ontotext.trree.sdk.PluginConnection;
+import com.ontotext.trree.sdk.PluginTransactionListener;
 import com.ontotext.trree.sdk.Preprocessor;
 import com.ontotext.trree.sdk.Request;
 import com.ontotext.trree.sdk.RequestContext;
 import com.ontotext.trree.sdk.RequestOptions;
+import com.ontotext.trree.sdk.ShutdownReason;
 import com.ontotext.trree.sdk.StatelessPlugin;
 import com.ontotext.trree.sdk.StatementIterator;
+import com.ontotext.trree.sdk.StatementListener;
 import com.ontotext.trree.sdk.SystemPlugin;
 import com.ontotext.trree.sdk.SystemPluginOptions;
 import com.ontotext.trree.sdk.Entities.Scope;
@@ -52,45 +77,183 @@ import com.ontotext.trree.sdk.SystemPluginOptions.Option;
  *      ?solution pr:object ?obj .
  *      ?solution pr:context ?context .
  *   }
+ *
+ * pr:explainTree works the same way but also explains the inferred premises recursively, so a single
+ * query returns the whole derivation graph. The statement derived by the current solution and its depth
+ * are available through pr:headSubject, pr:headPredicate, pr:headObject and pr:depth.
+ *
+ * pr:shortestProof returns a single derivation of the statement of minimal depth, i.e. the inferred premises
+ * are explained the same way as pr:explainTree but only through the solutions of the shortest proof.
+ *
+ * pr:supports is the reverse of pr:explain, ?solution pr:supports (?s ?p ?o) returns the inferred statements that
+ * have a solution with the statement as a premise, through the same head and premise predicates.
+ *
+ * pr:explainAll explains all statements of a graph, e.g. ?solution pr:explainAll onto:implicit, and returns
+ * them in the order of the graph index. The explained statement of each row is available through the same
+ * pr:headSubject, pr:headPredicate and pr:headObject predicates.
+ *
+ * pr:rules lists what the plugin knows of the rules of the ruleset, "rule" pr:rules ?predicate binds the predicates
+ * of the statements each rule has derived and "rule" pr:premiseCount ?count the numbers of premises of its solutions.
+ *
+ * pr:exportProofs writes the solutions of all statements of a graph to a file, e.g.
+ * ?count pr:exportProofs (onto:implicit "proofs.nqs" "nquads-star"), see {@link ProofExporter}.
+ *
+ * The solutions found for an inferred statement are kept in a repository wide {@link ProofCache}
+ * so repeated explains of the same statement do not re-evaluate the rules. The plugin listens
+ * for the statement changes of each transaction to drop the cache entries they affect.
  * 
  * @author damyan.ognyanov
  *
  */
-public class ProofPlugin extends PluginBase implements StatelessPlugin, SystemPlugin, Preprocessor, PatternInterpreter, ListPatternInterpreter {
+public class ProofPlugin extends PluginBase implements StatelessPlugin, SystemPlugin, Preprocessor, PatternInterpreter, ListPatternInterpreter,
+		StatementListener, PluginTransactionListener {
 	private final Logger logger = LoggerFactory.getLogger(this.getClass());
 	// private key to store the connection in the request context
 	private static final String REPOSITORY_CONNECTION = "repconn";
 	// private key to store the inferencer in the request context
 	private static final String INFERENCER = "infer";
+	// private key to store the memo of resolved premise contexts in the request context
+	private static final String PREMISE_RESOLVER = "premises";
+	// private key to store the triples explained by pr:explainTree in the request context
+	private static final String EXPLAINED = "explained";
+	// private key to store the owl:sameAs classes used by the request in the request context
+	private static final String SAME_AS = "sameAs";
+	// private key prefix to store the number of statements exported to a file in the request context
+	private static final String EXPORTED = "exported ";
+
+	// system property with the default max depth of pr:explainTree
+	static final String TREE_DEPTH_PROPERTY = "graphdb.proof.tree.depth";
+	static final int DEFAULT_TREE_DEPTH = 16;
+	// system property with the number of threads used to explain the levels of pr:explainTree and the statements of
+	// pr:explainAll, 1 explains them sequentially on the thread of the request
+	static final String PARALLELISM_PROPERTY = "graphdb.proof.parallelism";
+	// system property with the max number of statements pr:supports explains to find the ones a premise supports
+	static final String SUPPORTS_CANDIDATES_PROPERTY = "graphdb.proof.supports.candidates";
+	static final int DEFAULT_SUPPORTS_CANDIDATES = 10000;
+	// system property with the MB of solutions a request may hold on the heap before it spills them, 0 or missing for no cap
+	static final String REQUEST_MEMORY_PROPERTY = "graphdb.proof.request.memory";
+	// smaller stores are not worth a file of their own
+	private static final int MIN_SPILL_BYTES = 1 << 16;
+	// system property with the directory pr:exportProofs writes to, the export is disabled if it is not set
+	static final String EXPORT_DIR_PROPERTY = "graphdb.proof.export.dir";
+	// how many times more rows pr:explainTree is expected to return than pr:explain of the same statement
+	private static final int TREE_ROWS_FACTOR = 10;
+	// how many statements pr:explainAll explains ahead of the one being returned, per thread
+	private static final int EXPLAIN_AHEAD = 4;
+	// the solutions are collected into a per thread store, which is dropped if it has grown beyond that many premises
+	private static final int MAX_SCRATCH_PREMISES = 1 << 16;
+	private static final ThreadLocal<SolutionStore> SCRATCH = new ThreadLocal<SolutionStore>() {
+		@Override
+		protected SolutionStore initialValue() {
+			return new SolutionStore();
+		}
+	};
 
 	public static final String NAMESPACE = "http://www.ontotext.com/proof/";
 
 	public static final IRI EXPLAIN_URI = SimpleValueFactory.getInstance().createIRI(NAMESPACE+"explain");
+	public static final IRI EXPLAIN_FIRST_URI = SimpleValueFactory.getInstance().createIRI(NAMESPACE+"explainFirst");
+	public static final IRI EXPLAIN_TREE_URI = SimpleValueFactory.getInstance().createIRI(NAMESPACE+"explainTree");
+	public static final IRI SHORTEST_PROOF_URI = SimpleValueFactory.getInstance().createIRI(NAMESPACE+"shortestProof");
+	public static final IRI SUPPORTS_URI = SimpleValueFactory.getInstance().createIRI(NAMESPACE+"supports");
+	public static final IRI EXPLAIN_ALL_URI = SimpleValueFactory.getInstance().createIRI(NAMESPACE+"explainAll");
 	public static final IRI RULE_URI = SimpleValueFactory.getInstance().createIRI(NAMESPACE+"rule");
 	public static final IRI SUBJ_URI = SimpleValueFactory.getInstance().createIRI(NAMESPACE+"subject");
 	public static final IRI PRED_URI = SimpleValueFactory.getInstance().createIRI(NAMESPACE+"predicate");
 	public static final IRI OBJ_URI = SimpleValueFactory.getInstance().createIRI(NAMESPACE+"object");
 	public static final IRI CONTEXT_URI = SimpleValueFactory.getInstance().createIRI(NAMESPACE+"context");
-	private final static String KEY_STORAGE = "storage";
+	public static final IRI HEAD_SUBJ_URI = SimpleValueFactory.getInstance().createIRI(NAMESPACE+"headSubject");
+	public static final IRI HEAD_PRED_URI = SimpleValueFactory.getInstance().createIRI(NAMESPACE+"headPredicate");
+	public static final IRI HEAD_OBJ_URI = SimpleValueFactory.getInstance().createIRI(NAMESPACE+"headObject");
+	public static final IRI DEPTH_URI = SimpleValueFactory.getInstance().createIRI(NAMESPACE+"depth");
+	public static final IRI STATS_URI = SimpleValueFactory.getInstance().createIRI(NAMESPACE+"stats");
+	public static final IRI BUDGET_URI = SimpleValueFactory.getInstance().createIRI(NAMESPACE+"budget");
+	public static final IRI PARTIAL_URI = SimpleValueFactory.getInstance().createIRI(NAMESPACE+"partial");
+	public static final IRI EXPORT_URI = SimpleValueFactory.getInstance().createIRI(NAMESPACE+"exportProofs");
+	public static final IRI RULES_URI = SimpleValueFactory.getInstance().createIRI(NAMESPACE+"rules");
+	public static final IRI PREMISE_COUNT_URI = SimpleValueFactory.getInstance().createIRI(NAMESPACE+"premiseCount");
 
 	int contextMask = StatementIdIterator.DELETED_STATEMENT_STATUS | StatementIdIterator.SKIP_ON_BROWSE_STATEMENT_STATUS |
 			StatementIdIterator.INFERRED_STATEMENT_STATUS;
+	// the statements of a graph that could be explained
+	int graphMask = StatementIdIterator.DELETED_STATEMENT_STATUS | StatementIdIterator.SKIP_ON_BROWSE_STATEMENT_STATUS;
+	// the statements that are only inferred, which are the ones a premise may support
+	int inferredMask = StatementIdIterator.DELETED_STATEMENT_STATUS | StatementIdIterator.SKIP_ON_BROWSE_STATEMENT_STATUS |
+			StatementIdIterator.EXPLICIT_STATEMENT_STATUS;
 
 	long explainId = 0;
+	long explainFirstId = 0;
+	long explainTreeId = 0;
+	long shortestProofId = 0;
+	long supportsId = 0;
+	long explainAllId = 0;
 	long ruleId = 0;
 	long subjId = 0;
 	long predId = 0;
 	long objId = 0;
 	long contextId = 0;
+	long headSubjId = 0;
+	long headPredId = 0;
+	long headObjId = 0;
+	long depthId = 0;
+	long statsId = 0;
+	long budgetId = 0;
+	long partialId = 0;
+	long exportId = 0;
+	long rulesId = 0;
+	long premiseCountId = 0;
+	long sameAsId = 0;
+	long typeId = 0;
+	long firstId = 0;
+	long restId = 0;
+
+	// solutions of already explained statements shared by all requests
+	ProofCache cache = new ProofCache(0, 0);
+	// persistent solutions of the explained statements, null if disabled
+	ProvenanceIndex index = null;
+	// explains independent statements in parallel, null if disabled
+	ForkJoinPool explainPool = null;
+	// the bytes of solutions a request may hold on the heap before it spills the ones it collects, 0 for no cap
+	long maxRequestBytes = 0;
+	int maxSupportCandidates = DEFAULT_SUPPORTS_CANDIDATES;
+	// the rule names reported by the inferencer and what their solutions tell of them
+	final RuleIndex rules = new RuleIndex();
+	// explain statistics, also registered as an MXBean
+	final ProofStats stats = new ProofStats(rules, this);
+	ObjectName statsName = null;
+	// the observed numbers of solutions and premises used by estimate()
+	final CardinalityStats cardinality = new CardinalityStats();
+	// the owl:sameAs classes, built on first use and dropped once a transaction changes them
+	SameAsIndex sameAs = null;
+	// the number of transactions that have changed the owl:sameAs statements
+	long sameAsVersion = 0;
+	volatile boolean sameAsChanged = false;
 
 	/**
 	 * this is the context implementation where the plugin stores currently running patterns
-	 * it just keeps some values using sting keys for further access
+	 * it just keeps some values using sting keys for further access, while the running explain tasks
+	 * are kept by the id of their solution designator as they are looked up for every result row
 	 *
 	 */
 	class ContextImpl implements RequestContext {
 		HashMap<String, Object> map = new HashMap<String, Object>();
+		// the explain tasks that are not closed yet
+		LongMap<ExplainIter> tasks = new LongMap<ExplainIter>();
+		// the task found by the last lookup
+		long lastId = 0;
+		ExplainIter lastTask = null;
+		// limits on the work of the explains within the request
+		ExplainBudget budget = ExplainBudget.global();
 		Request request;
+		// request scoped ids of the rule name literals by rule index and of the depth literals by depth, 0 if not created yet
+		long[] ruleLiterals = new long[0];
+		long[] depthLiterals = new long[0];
+		long trueLiteral = 0, falseLiteral = 0;
+		// the generations of the cache and of the provenance index when the request started, -1 if there was no index,
+		// so that solutions read from an older snapshot are not put after a commit
+		long cacheGeneration = 0, indexGeneration = -1;
+		// the version of the owl:sameAs classes when the request started
+		long sameAsVersion = 0;
 		@Override
 		public Request getRequest() {
 			return request;
@@ -110,6 +273,70 @@ public class ProofPlugin extends PluginBase implements StatelessPlugin, SystemPl
 		public void removeAttribute(String key) {
 			map.remove(key);
 		}
+
+		ExplainIter getTask(long reificationId) {
+			// the accessors of a row look up the same task one after another
+			if (reificationId == lastId && lastTask != null)
+				return lastTask;
+			ExplainIter task = tasks.get(reificationId);
+			lastId = reificationId;
+			lastTask = task;
+			return task;
+		}
+		void addTask(long reificationId, ExplainIter task) {
+			tasks.put(reificationId, task);
+			if (reificationId == lastId)
+				lastTask = task;
+		}
+		void removeTask(long reificationId) {
+			tasks.remove(reificationId);
+			if (reificationId == lastId)
+				lastTask = null;
+		}
+
+		/**
+		 * @return true if solutions of that many bytes being collected should be spilled off the heap, as together
+		 * with the ones the iterators of the request hold, cached or not, they are more than its cap
+		 */
+		boolean shouldSpill(long bytes) {
+			return maxRequestBytes > 0 && bytes >= MIN_SPILL_BYTES && budget.held() + bytes > maxRequestBytes;
+		}
+
+		/**
+		 * @return the id of the literal with the rule name, created once per request
+		 */
+		long ruleLiteral(int rule, Entities entities) {
+			if (rule >= ruleLiterals.length)
+				ruleLiterals = Arrays.copyOf(ruleLiterals, Math.max(rule + 1, ruleLiterals.length * 2));
+			if (ruleLiterals[rule] == 0)
+				ruleLiterals[rule] = entities.put(SimpleValueFactory.getInstance().createLiteral(rules.name(rule)), Scope.REQUEST);
+			return ruleLiterals[rule];
+		}
+
+		/**
+		 * @return the id of the boolean literal, created once per request
+		 */
+		long booleanLiteral(boolean value, Entities entities) {
+			if (value) {
+				if (trueLiteral == 0)
+					trueLiteral = entities.put(SimpleValueFactory.getInstance().createLiteral(true), Scope.REQUEST);
+				return trueLiteral;
+			}
+			if (falseLiteral == 0)
+				falseLiteral = entities.put(SimpleValueFactory.getInstance().createLiteral(false), Scope.REQUEST);
+			return falseLiteral;
+		}
+
+		/**
+		 * @return the id of the literal with the depth, created once per request
+		 */
+		long depthLiteral(int depth, Entities entities) {
+			if (depth >= depthLiterals.length)
+				depthLiterals = Arrays.copyOf(depthLiterals, Math.max(depth + 1, depthLiterals.length * 2));
+			if (depthLiterals[depth] == 0)
+				depthLiterals[depth] = entities.put(SimpleValueFactory.getInstance().createLiteral(depth), Scope.REQUEST);
+			return depthLiterals[depth];
+		}
 	}
 
 	/*
@@ -123,9 +350,17 @@ public class ProofPlugin extends PluginBase implements StatelessPlugin, SystemPl
 									   PluginConnection pluginConnection, RequestContext requestContext) {
 		
 		if (predicate != explainId && predicate != ruleId && predicate != contextId &&
-				predicate != subjId && predicate != predId && predicate != objId)
+				predicate != subjId && predicate != predId && predicate != objId &&
+				predicate != headSubjId && predicate != headPredId && predicate != headObjId && predicate != depthId &&
+				predicate != explainAllId && predicate != statsId && predicate != budgetId && predicate != partialId &&
+				predicate != rulesId && predicate != premiseCountId)
 			return null;
 
+		if (predicate == statsId)
+			return statsIterator(subject, object, pluginConnection.getEntities());
+		if (predicate == rulesId || predicate == premiseCountId)
+			return rulesIterator(subject, predicate, object, pluginConnection.getEntities());
+
 		// make sure we have the proper request context set when preprocess() has been invoked
 		// if not return EMPTY
 		ContextImpl ctx = (requestContext instanceof ContextImpl)?(ContextImpl)requestContext:null;
@@ -134,50 +369,119 @@ public class ProofPlugin extends PluginBase implements StatelessPlugin, SystemPl
 		if (ctx == null)
 			return StatementIterator.EMPTY;
 		
-		if (predicate == ruleId){
+		if (predicate == budgetId) {
+			// the name of the limit and its value must be bound
+			if (subject == 0 || object == 0)
+				return StatementIterator.EMPTY;
+			Value name = pluginConnection.getEntities().get(subject);
+			Value value = pluginConnection.getEntities().get(object);
+			if (!(name instanceof Literal) || !(value instanceof Literal))
+				return StatementIterator.EMPTY;
+			try {
+				if (!ctx.budget.set(name.stringValue(), ((Literal)value).longValue()))
+					return StatementIterator.EMPTY;
+			} catch (NumberFormatException e) {
+				return StatementIterator.EMPTY;
+			}
+			return StatementIterator.create(subject, predicate, object, 0);
+		} else if (predicate == explainAllId) {
+			// the graph to explain must be bound
+			if (object == 0)
+				return StatementIterator.EMPTY;
+			AbstractInferencer infer = (AbstractInferencer)ctx.getAttribute(INFERENCER);
+			if (infer.getInferStatementsFlag() == false)
+				return StatementIterator.EMPTY;
+			long reificationId = pluginConnection.getEntities().put(SimpleValueFactory.getInstance().createBNode(), Scope.REQUEST);
+			AllIter ret = new AllIter(ctx, reificationId, predicate, object);
+			ret.infer = infer;
+			ret.conn = (AbstractRepositoryConnection)ctx.getAttribute(REPOSITORY_CONNECTION);
+			ret.premises = getPremiseResolver(ctx, ret.conn);
+			ctx.addTask(reificationId, ret);
+			return ret;
+		} else if (predicate == ruleId){
 			// same for the object
-			ExplainIter task = (ExplainIter)ctx.getAttribute(KEY_STORAGE+subject);
-			if (task == null || (task.current == null))
+			ExplainIter task = ctx.getTask(subject);
+			if (task == null || (!task.hasCurrent()))
 				return StatementIterator.EMPTY;
 			// bind the value of the predicate from the current solution as object of the triple pattern
-			return StatementIterator.create(task.reificationId, predicate, 
-					pluginConnection.getEntities().put(SimpleValueFactory.getInstance().createLiteral(task.current.rule), Scope.REQUEST), 0);
+			return task.row(predicate, ctx.ruleLiteral(task.ruleIndex(), pluginConnection.getEntities()));
 		} else if (predicate == subjId){
 			// same for the object
-			ExplainIter task = (ExplainIter)ctx.getAttribute(KEY_STORAGE+subject);
-			if (task == null || (task.current == null))
+			ExplainIter task = ctx.getTask(subject);
+			if (task == null || (!task.hasCurrent()))
 				return StatementIterator.EMPTY;
-			if (object != 0 && task.values[0] != object)
+			if (object != 0 && task.value(0) != object)
 				return StatementIterator.EMPTY;
 			// bind the value of the predicate from the current solution as object of the triple pattern
-			return StatementIterator.create(task.reificationId, predicate, task.values[0], 0);
+			return task.row(predicate, task.value(0));
 		} else if (predicate == predId){
 			// same for the object
-			ExplainIter task = (ExplainIter)ctx.getAttribute(KEY_STORAGE+subject);
-			if (task == null || (task.current == null))
+			ExplainIter task = ctx.getTask(subject);
+			if (task == null || (!task.hasCurrent()))
 				return StatementIterator.EMPTY;
-			if (object != 0 && task.values[1] != object)
+			if (object != 0 && task.value(1) != object)
 				return StatementIterator.EMPTY;
 			// bind the value of the predicate from the current solution as object of the triple pattern
-			return StatementIterator.create(task.reificationId, predicate, task.values[1], 0);
+			return task.row(predicate, task.value(1));
 		} else if (predicate == objId){
 			// same for the object
-			ExplainIter task = (ExplainIter)ctx.getAttribute(KEY_STORAGE+subject);
-			if (task == null || (task.current == null))
+			ExplainIter task = ctx.getTask(subject);
+			if (task == null || (!task.hasCurrent()))
 				return StatementIterator.EMPTY;
-			if (object != 0 && task.values[2] != object)
+			if (object != 0 && task.value(2) != object)
 				return StatementIterator.EMPTY;
 			// bind the value of the predicate from the current solution as object of the triple pattern
-			return StatementIterator.create(task.reificationId, predicate, task.values[2], 0);
+			return task.row(predicate, task.value(2));
 		} else if (predicate == contextId){
 			// same for the object
-			ExplainIter task = (ExplainIter)ctx.getAttribute(KEY_STORAGE+subject);
-			if (task == null || (task.current == null))
+			ExplainIter task = ctx.getTask(subject);
+			if (task == null || (!task.hasCurrent()))
 				return StatementIterator.EMPTY;
-			if (object != 0 && task.values[3] != object)
+			if (object != 0 && task.value(3) != object)
 				return StatementIterator.EMPTY;
 			// bind the value of the predicate from the current solution as object of the triple pattern
-			return StatementIterator.create(task.reificationId, predicate, task.values[3], 0);
+			return task.row(predicate, task.value(3));
+		} else if (predicate == headSubjId){
+			// same for the object
+			ExplainIter task = ctx.getTask(subject);
+			if (task == null || (!task.hasCurrent()))
+				return StatementIterator.EMPTY;
+			if (object != 0 && task.headSubj != object)
+				return StatementIterator.EMPTY;
+			// bind the subject of the statement derived by the current solution as object of the triple pattern
+			return task.row(predicate, task.headSubj);
+		} else if (predicate == headPredId){
+			// same for the object
+			ExplainIter task = ctx.getTask(subject);
+			if (task == null || (!task.hasCurrent()))
+				return StatementIterator.EMPTY;
+			if (object != 0 && task.headPred != object)
+				return StatementIterator.EMPTY;
+			// bind the predicate of the statement derived by the current solution as object of the triple pattern
+			return task.row(predicate, task.headPred);
+		} else if (predicate == headObjId){
+			// same for the object
+			ExplainIter task = ctx.getTask(subject);
+			if (task == null || (!task.hasCurrent()))
+				return StatementIterator.EMPTY;
+			if (object != 0 && task.headObj != object)
+				return StatementIterator.EMPTY;
+			// bind the object of the statement derived by the current solution as object of the triple pattern
+			return task.row(predicate, task.headObj);
+		} else if (predicate == partialId){
+			// same for the object
+			ExplainIter task = ctx.getTask(subject);
+			if (task == null || (!task.hasCurrent()))
+				return StatementIterator.EMPTY;
+			// bind whether the solutions of the current statement have been cut by the budget as object of the triple pattern
+			return task.row(predicate, ctx.booleanLiteral(task.solutions.isPartial(), pluginConnection.getEntities()));
+		} else if (predicate == depthId){
+			// same for the object
+			ExplainIter task = ctx.getTask(subject);
+			if (task == null || (!task.hasCurrent()))
+				return StatementIterator.EMPTY;
+			// bind the depth of the statement derived by the current solution as object of the triple pattern
+			return task.row(predicate, ctx.depthLiteral(task.depth, pluginConnection.getEntities()));
 		}
 		
 		// if the predicate is not one of the registered in the ProvenancePlugin return null 
@@ -191,12 +495,24 @@ public class ProofPlugin extends PluginBase implements StatelessPlugin, SystemPl
 	@Override
 	public double estimate(long subject, long predicate, long object, long context, PluginConnection pluginConnection,
 						   RequestContext requestContext) {
+		if (predicate == statsId)
+			return 20;
+		// a few predicates or premise counts per rule
+		if (predicate == rulesId || predicate == premiseCountId)
+			return subject == 0 ? 10 * rules.size() : 10;
+		// set the budget before any explain is evaluated
+		if (predicate == budgetId)
+			return 0.5;
+		// explaining a whole graph is expensive but it binds the subject
+		if (predicate == explainAllId)
+			return object == 0 ? Double.MAX_VALUE : 10000L;
 		// if subject is not bound, any patttern return max value until there is some binding ad subject place
 		if (subject == 0)
 			return Double.MAX_VALUE;
 		// explain fetching predicates
 		if (predicate == ruleId || predicate == subjId|| predicate == predId || 
-				predicate == objId || predicate == contextId) {
+				predicate == objId || predicate == contextId || predicate == headSubjId ||
+				predicate == headPredId || predicate == headObjId || predicate == depthId || predicate == partialId) {
 			return 1.0;
 		}
 		// unknown predicate??? maybe it is good to throw an exception
@@ -218,6 +534,13 @@ public class ProofPlugin extends PluginBase implements StatelessPlugin, SystemPl
 		// create a context instance
 		ContextImpl impl = new ContextImpl(); 
 		impl.setRequest(request);
+		impl.cacheGeneration = cache.generation();
+		ProvenanceIndex index = this.index;
+		if (index != null)
+			impl.indexGeneration = index.generation();
+		synchronized (this) {
+			impl.sameAsVersion = sameAsVersion;
+		}
 		// check if there is a valid request and it has options
 		if (request != null ) {
 			RequestOptions ops = request.getOptions();
@@ -245,23 +568,285 @@ public class ProofPlugin extends PluginBase implements StatelessPlugin, SystemPl
 		// register the predicates
 
 		explainId = pluginConnection.getEntities().put(EXPLAIN_URI, Scope.SYSTEM);
+		explainFirstId = pluginConnection.getEntities().put(EXPLAIN_FIRST_URI, Scope.SYSTEM);
+		explainTreeId = pluginConnection.getEntities().put(EXPLAIN_TREE_URI, Scope.SYSTEM);
+		shortestProofId = pluginConnection.getEntities().put(SHORTEST_PROOF_URI, Scope.SYSTEM);
+		supportsId = pluginConnection.getEntities().put(SUPPORTS_URI, Scope.SYSTEM);
+		explainAllId = pluginConnection.getEntities().put(EXPLAIN_ALL_URI, Scope.SYSTEM);
 		ruleId = pluginConnection.getEntities().put(RULE_URI, Scope.SYSTEM);
 		subjId = pluginConnection.getEntities().put(SUBJ_URI, Scope.SYSTEM);
 		predId = pluginConnection.getEntities().put(PRED_URI, Scope.SYSTEM);
 		objId = pluginConnection.getEntities().put(OBJ_URI, Scope.SYSTEM);
 		contextId = pluginConnection.getEntities().put(CONTEXT_URI, Scope.SYSTEM);
+		headSubjId = pluginConnection.getEntities().put(HEAD_SUBJ_URI, Scope.SYSTEM);
+		headPredId = pluginConnection.getEntities().put(HEAD_PRED_URI, Scope.SYSTEM);
+		headObjId = pluginConnection.getEntities().put(HEAD_OBJ_URI, Scope.SYSTEM);
+		depthId = pluginConnection.getEntities().put(DEPTH_URI, Scope.SYSTEM);
+		statsId = pluginConnection.getEntities().put(STATS_URI, Scope.SYSTEM);
+		budgetId = pluginConnection.getEntities().put(BUDGET_URI, Scope.SYSTEM);
+		partialId = pluginConnection.getEntities().put(PARTIAL_URI, Scope.SYSTEM);
+		exportId = pluginConnection.getEntities().put(EXPORT_URI, Scope.SYSTEM);
+		rulesId = pluginConnection.getEntities().put(RULES_URI, Scope.SYSTEM);
+		premiseCountId = pluginConnection.getEntities().put(PREMISE_COUNT_URI, Scope.SYSTEM);
+		sameAsId = pluginConnection.getEntities().put(OWL.SAMEAS, Scope.SYSTEM);
+		typeId = pluginConnection.getEntities().put(RDF.TYPE, Scope.SYSTEM);
+		firstId = pluginConnection.getEntities().put(RDF.FIRST, Scope.SYSTEM);
+		restId = pluginConnection.getEntities().put(RDF.REST, Scope.SYSTEM);
+
+		cache = new ProofCache(Integer.getInteger(ProofCache.SIZE_PROPERTY, ProofCache.DEFAULT_SIZE),
+				Long.getLong(ProofCache.MEMORY_PROPERTY, ProofCache.DEFAULT_MEMORY) << 20);
+		maxRequestBytes = Long.getLong(REQUEST_MEMORY_PROPERTY, 0) << 20;
+		maxSupportCandidates = Integer.getInteger(SUPPORTS_CANDIDATES_PROPERTY, DEFAULT_SUPPORTS_CANDIDATES);
+		int parallelism = Integer.getInteger(PARALLELISM_PROPERTY, 1);
+		if (parallelism > 1 && explainPool == null)
+			explainPool = new ForkJoinPool(parallelism);
+		if (Boolean.getBoolean(ProvenanceIndex.ENABLED_PROPERTY) && index == null) {
+			File file = new File(getDataDir(), ProvenanceIndex.FILE_NAME);
+			try {
+				index = new ProvenanceIndex(file, rules, pluginConnection.getFingerprint(), sameAsId);
+			} catch (IOException e) {
+				logger.error("could not open the provenance index " + file + ", the statements are explained on demand", e);
+			}
+		}
+		registerStats();
+	}
+
+	/**
+	 * registers the statistics as an MXBean, there may be a plugin instance per repository so the name includes the instance
+	 */
+	private void registerStats() {
+		if (statsName != null)
+			return;
+		try {
+			ObjectName name = new ObjectName(ProofStats.class.getPackage().getName() + ":type=ProofStats,instance="
+					+ Integer.toHexString(System.identityHashCode(this)));
+			ManagementFactory.getPlatformMBeanServer().registerMBean(new StandardMBean(stats, ProofStatsMXBean.class, true), name);
+			statsName = name;
+		} catch (JMException e) {
+			logger.warn("could not register the proof statistics MBean", e);
+		}
+	}
+
+	/**
+	 * binds the name of each statistic as a literal to the subject and its value to the object
+	 */
+	private StatementIterator statsIterator(long subject, long object, Entities entities) {
+		String only = null;
+		if (subject != 0) {
+			Value value = entities.get(subject);
+			if (!(value instanceof Literal))
+				return StatementIterator.EMPTY;
+			only = value.stringValue();
+		}
+		ArrayList<long[]> rows = new ArrayList<long[]>();
+		for (Map.Entry<String, Long> entry : stats.toMap().entrySet()) {
+			if (only != null && !only.equals(entry.getKey()))
+				continue;
+			long name = subject != 0 ? subject : entities.put(SimpleValueFactory.getInstance().createLiteral(entry.getKey()), Scope.REQUEST);
+			long value = entities.put(SimpleValueFactory.getInstance().createLiteral(entry.getValue().longValue()), Scope.REQUEST);
+			if (object != 0 && object != value)
+				continue;
+			rows.add(new long[] {name, statsId, value, 0});
+		}
+		return StatementIterator.create(rows.toArray(new long[rows.size()][]));
+	}
+
+	/**
+	 * binds the name of each rule as a literal to the subject and the predicates it has derived or the numbers
+	 * of premises of its solutions to the object
+	 */
+	private StatementIterator rulesIterator(long subject, long predicate, long object, Entities entities) {
+		int first = 0, last = rules.size() - 1;
+		if (subject != 0) {
+			Value value = entities.get(subject);
+			if (!(value instanceof Literal))
+				return StatementIterator.EMPTY;
+			first = last = rules.id(value.stringValue());
+			if (first < 0)
+				return StatementIterator.EMPTY;
+		}
+		ArrayList<long[]> rows = new ArrayList<long[]>();
+		for (int rule = first; rule <= last; rule++) {
+			long[] values;
+			if (predicate == rulesId) {
+				values = rules.heads(rule);
+			} else if (rules.maxPremises(rule) == 0) {
+				values = new long[0];
+			} else {
+				values = new long[] {rules.minPremises(rule), rules.maxPremises(rule)};
+				if (values[0] == values[1])
+					values = new long[] {values[0]};
+				for (int i = 0; i < values.length; i++)
+					values[i] = entities.put(SimpleValueFactory.getInstance().createLiteral((int)values[i]), Scope.REQUEST);
+			}
+			long name = 0;
+			for (long value : values) {
+				if (object != 0 && object != value)
+					continue;
+				if (name == 0)
+					name = subject != 0 ? subject : entities.put(SimpleValueFactory.getInstance().createLiteral(rules.name(rule)), Scope.REQUEST);
+				rows.add(new long[] {name, predicate, value, 0});
+			}
+		}
+		return StatementIterator.create(rows.toArray(new long[rows.size()][]));
+	}
+
+	@Override
+	public void shutdown(ShutdownReason shutdownReason) {
+		logger.debug("proof cache statistics: {}", cache);
+		logger.debug("proof statistics: {}", stats);
+		if (index != null) {
+			index.close();
+			index = null;
+		}
+		if (statsName != null) {
+			try {
+				ManagementFactory.getPlatformMBeanServer().unregisterMBean(statsName);
+			} catch (JMException e) {
+				logger.warn("could not unregister the proof statistics MBean", e);
+			}
+			statsName = null;
+		}
+		if (explainPool != null) {
+			explainPool.shutdown();
+			explainPool = null;
+		}
+	}
+
+	/**
+	 * the hit/miss/eviction counters of the proof cache are available through it
+	 */
+	ProofCache getCache() {
+		return cache;
+	}
+
+	@Override
+	public boolean statementAdded(long subject, long predicate, long object, long context, boolean isExplicit,
+								  PluginConnection pluginConnection) {
+		cache.statementAdded();
+		if (index != null)
+			indexChanged(subject, predicate, object, true);
+		if (predicate == sameAsId)
+			sameAsChanged = true;
+		return false;
+	}
+
+	@Override
+	public boolean statementRemoved(long subject, long predicate, long object, long context, boolean isExplicit,
+									PluginConnection pluginConnection) {
+		cache.statementRemoved(subject, predicate, object);
+		if (index != null)
+			indexChanged(subject, predicate, object, false);
+		if (predicate == sameAsId)
+			sameAsChanged = true;
+		return false;
+	}
+
+	/**
+	 * the provenance index drops the entries a changed statement may affect once the transaction completes,
+	 * all of them for the owl:sameAs and RDF list statements the rules follow through other nodes
+	 */
+	private void indexChanged(long subject, long predicate, long object, boolean added) {
+		if (predicate == sameAsId || predicate == firstId || predicate == restId)
+			index.invalidateAll();
+		else if (added)
+			index.statementAdded(subject, predicate, object);
+		else
+			index.statementRemoved(subject, predicate, object);
+	}
+
+	@Override
+	public void transactionStarted(PluginConnection pluginConnection) {
+		cache.transactionStarted();
+		if (index != null)
+			index.transactionStarted();
+	}
+
+	@Override
+	public void transactionCommit(PluginConnection pluginConnection) {
+		// entries are dropped once the transaction completes
+	}
+
+	@Override
+	public void transactionCompleted(PluginConnection pluginConnection) {
+		cache.transactionCompleted();
+		if (index != null)
+			index.transactionCompleted(pluginConnection.getFingerprint());
+		if (sameAsChanged) {
+			synchronized (this) {
+				sameAs = null;
+				sameAsVersion++;
+			}
+			sameAsChanged = false;
+		}
+	}
+
+	@Override
+	public void transactionAborted(PluginConnection pluginConnection) {
+		cache.transactionAborted();
+		if (index != null)
+			index.transactionAborted();
+		sameAsChanged = false;
 	}
 
 	@Override
 	public double estimate(long subject, long predicate, long[] objects, long context, 
 			PluginConnection pluginConnection, RequestContext requestContext) {
-		if (predicate == explainId) {
-			if (objects.length != 3)
+		if (predicate == explainId || predicate == explainFirstId || predicate == explainTreeId || predicate == shortestProofId) {
+			if (objects.length < 3)
 				return Double.MAX_VALUE;
 			if (objects[0] == 0 || objects[1] == 0 || objects[2] == 0)
 				return Double.MAX_VALUE;
-			return 10L;
+			// an explicit statement is its own single premise
+			ContextImpl ctx = (requestContext instanceof ContextImpl)?(ContextImpl)requestContext:null;
+			AbstractRepositoryConnection conn = ctx == null ? null : (AbstractRepositoryConnection)ctx.getAttribute(REPOSITORY_CONNECTION);
+			if (conn != null) {
+				try (StatementIdIterator iter = conn.getStatements(objects[0], objects[1], objects[2], contextMask)) {
+					if (iter.hasNext())
+						return 1.0;
+				}
+			}
+			// otherwise expect as many rows as the statements with the same predicate explained so far
+			double rows = cardinality.rows(objects[1]);
+			if (predicate == explainFirstId) {
+				rows = cardinality.rowsPerSolution(objects[1]);
+			} else if (predicate == explainId && objects.length >= 4) {
+				int limit = parseCount(objects[3], pluginConnection);
+				if (limit > 0)
+					rows = Math.min(rows, limit * cardinality.rowsPerSolution(objects[1]));
+			} else if (predicate == explainTreeId) {
+				// a tree explains the inferred premises as well
+				rows *= TREE_ROWS_FACTOR;
+			} else if (predicate == shortestProofId) {
+				// a single solution for the statement and each of its inferred premises
+				rows = cardinality.rowsPerSolution(objects[1]) * TREE_ROWS_FACTOR;
+			}
+			if (predicate == explainId || predicate == explainFirstId) {
+				// with the names of the rules, only the ones known to derive the predicate are expected to return rows,
+				// while nothing is known of a rule that has not reported a solution yet
+				int named = 0, deriving = 0;
+				boolean unknown = false;
+				for (int i = 3; i < objects.length && !unknown; i++) {
+					if (!isString(objects[i], pluginConnection))
+						continue;
+					named++;
+					int rule = rules.id(pluginConnection.getEntities().get(objects[i]).stringValue());
+					if (rule < 0 || rules.maxPremises(rule) == 0)
+						unknown = true;
+					else if (rules.derives(rule, objects[1]))
+						deriving++;
+				}
+				if (named > 0 && !unknown)
+					rows = Math.min(rows, deriving * cardinality.rowsPerSolution(objects[1]));
+			}
+			return Math.max(1.0, rows);
 		}
+		// the statements a premise supports are found by explaining the ones that share a node with it
+		if (predicate == supportsId)
+			return objects.length != 3 || objects[0] == 0 || objects[1] == 0 || objects[2] == 0 ? Double.MAX_VALUE : 1000L;
+		// an export binds a single row once the graph and the file are known
+		if (predicate == exportId)
+			return objects.length < 2 || objects[0] == 0 || objects[1] == 0 ? Double.MAX_VALUE : 1.0;
 		return Double.MAX_VALUE;
 	}
 
@@ -276,8 +861,8 @@ public class ProofPlugin extends PluginBase implements StatelessPlugin, SystemPl
 		if (ctx == null)
 			return StatementIterator.EMPTY;
 		
-		if (predicate == explainId) {
-			if (objects == null || objects.length != 3)
+		if (predicate == explainId || predicate == explainFirstId || predicate == explainTreeId || predicate == shortestProofId) {
+			if (objects == null || objects.length < 3)
 				return StatementIterator.EMPTY;
 
 			long subj = objects[0];
@@ -286,6 +871,47 @@ public class ProofPlugin extends PluginBase implements StatelessPlugin, SystemPl
 			// empty if no binding, or some of the nodes is not a regular entity
 			if (subj <= 0 || obj <= 0 || pred <= 0)
 				return StatementIterator.EMPTY;
+			// pr:explainFirst stops at the first solution, pr:explain may get the max number of solutions as 4th argument
+			// and pr:explainTree and pr:shortestProof the max depth of the derivation
+			int limit = 0;
+			int maxDepth = Integer.getInteger(TREE_DEPTH_PROPERTY, DEFAULT_TREE_DEPTH);
+			// pr:explain and pr:explainFirst may be followed by the names of the rules to return the solutions of
+			// and by the named graphs the premises may come from, in any order
+			HashSet<String> ruleFilter = null;
+			long[] contexts = null;
+			int args = objects.length;
+			if (predicate == explainId || predicate == explainFirstId) {
+				while (args > 3) {
+					long arg = objects[args - 1];
+					if (isString(arg, pluginConnection)) {
+						if (ruleFilter == null)
+							ruleFilter = new HashSet<String>();
+						ruleFilter.add(pluginConnection.getEntities().get(arg).stringValue());
+					} else if (arg > 0 && pluginConnection.getEntities().get(arg) instanceof IRI) {
+						contexts = contexts == null ? new long[] {arg} : addContext(contexts, arg);
+					} else {
+						break;
+					}
+					args--;
+				}
+			}
+			if (predicate == explainFirstId) {
+				if (args != 3)
+					return StatementIterator.EMPTY;
+				limit = 1;
+			} else if (args == 4) {
+				int arg = parseCount(objects[3], pluginConnection);
+				boolean derivation = predicate == explainTreeId || predicate == shortestProofId;
+				if (derivation)
+					maxDepth = arg;
+				else
+					limit = arg;
+				// a derivation may be limited to the statement itself while a limit of 0 solutions makes no sense
+				if (maxDepth < 0 || limit < 0 || (!derivation && limit == 0))
+					return StatementIterator.EMPTY;
+			} else if (args != 3) {
+				return StatementIterator.EMPTY;
+			}
 			// a context if an explicit exists
 			long aContext = 0;
 			AbstractInferencer infer = (AbstractInferencer)ctx.getAttribute(INFERENCER);
@@ -301,8 +927,15 @@ public class ProofPlugin extends PluginBase implements StatelessPlugin, SystemPl
 				try {
 					isExplicit = iter.hasNext();
 					aContext = iter.context;
-					// handle if explicit comes from sameAs
-					isDerivedFromSameAs = 0 != (iter.status & StatementIdIterator.SKIP_ON_REINFER_STATEMENT_STATUS);
+					// handle if explicit comes from sameAs, unless the statement also exists on its own
+					isDerivedFromSameAs = isExplicit;
+					for (; iter.hasNext(); iter.next()) {
+						if (0 == (iter.status & StatementIdIterator.SKIP_ON_REINFER_STATEMENT_STATUS)) {
+							isDerivedFromSameAs = false;
+							aContext = iter.context;
+							break;
+						}
+					}
 				} finally {
 					iter.close();
 				}
@@ -312,67 +945,563 @@ public class ProofPlugin extends PluginBase implements StatelessPlugin, SystemPl
 			long reificationId = pluginConnection.getEntities().put(SimpleValueFactory.getInstance().createBNode(), Scope.REQUEST);
 			
 			// create a Task instance and pass the iterator of the statements from the target graph
-			ExplainIter ret = new ExplainIter(ctx, reificationId, subj, pred, obj, 
-					isExplicit, isDerivedFromSameAs, aContext);
+			ExplainIter ret;
+			if (predicate == explainTreeId || predicate == shortestProofId) {
+				TreeIter tree = predicate == explainTreeId
+						? new TreeIter(ctx, reificationId, predicate, subj, pred, obj, isExplicit, isDerivedFromSameAs, aContext)
+						: new ShortestIter(ctx, reificationId, predicate, subj, pred, obj, isExplicit, isDerivedFromSameAs, aContext);
+				tree.maxDepth = maxDepth;
+				tree.explained = getExplained(ctx);
+				ret = tree;
+			} else {
+				ret = new ExplainIter(ctx, reificationId, predicate, subj, pred, obj,
+						isExplicit, isDerivedFromSameAs, aContext);
+				ret.limit = limit;
+				ret.ruleFilter = ruleFilter;
+				ret.contexts = contexts;
+			}
 			// access the inferencers and the repository connection from systemoptions
 			ret.infer = infer;
 			ret.conn = conn;
-			ret.init();
+			ret.premises = getPremiseResolver(ctx, conn, contexts);
+			// the solutions are enumerated on the first call to next(), so nothing is done if the iterator is never consumed
 			// store the task into request context  
-			ctx.setAttribute(KEY_STORAGE+reificationId, ret);
+			ctx.addTask(reificationId, ret);
 			
 			// return the newly created task instance (it is a valid StatementIterator that could be reevaluated until all solutions are 
 			// generated)
 			return ret;
+		} else if (predicate == supportsId) {
+			if (objects == null || objects.length != 3 || objects[0] <= 0 || objects[1] <= 0 || objects[2] <= 0)
+				return StatementIterator.EMPTY;
+			AbstractInferencer infer = (AbstractInferencer)ctx.getAttribute(INFERENCER);
+			if (infer.getInferStatementsFlag() == false)
+				return StatementIterator.EMPTY;
+			long reificationId = pluginConnection.getEntities().put(SimpleValueFactory.getInstance().createBNode(), Scope.REQUEST);
+			SupportsIter ret = new SupportsIter(ctx, reificationId, predicate, objects[0], objects[1], objects[2]);
+			ret.infer = infer;
+			ret.conn = (AbstractRepositoryConnection)ctx.getAttribute(REPOSITORY_CONNECTION);
+			ret.premises = getPremiseResolver(ctx, ret.conn);
+			ctx.addTask(reificationId, ret);
+			return ret;
+		} else if (predicate == exportId) {
+			return export(subject, objects, pluginConnection.getEntities(), ctx);
 		}
 		return null;
 	}
-	
-	class ExplainIter extends StatementIterator implements ReportSupportedSolution {
-		class Solution {
-			String rule;
-			ArrayList<long[]> premises;
-			Solution(String rule, ArrayList<long[]> premises) {
-				this.rule = rule;
-				this.premises = premises;
-			}
-			public String toString() {
-				StringBuilder builder = new StringBuilder();
-				builder.append("rule:").append(rule).append("\n");
-				for (long[] p : premises) {
-					builder.append(p[0]).append(",").append(p[1]).append(",");
-					builder.append(p[2]).append(",").append(p[3]).append("\n");
+
+	/**
+	 * exports the solutions of the statements of a graph to a file in the export directory
+	 * and binds the number of exported statements to the subject
+	 */
+	private StatementIterator export(long subject, long[] objects, Entities entities, ContextImpl ctx) {
+		// the graph, the file name and optionally the format must be bound
+		if (objects == null || objects.length < 2 || objects.length > 3 || objects[0] == 0 || objects[1] == 0)
+			return StatementIterator.EMPTY;
+		String dir = System.getProperty(EXPORT_DIR_PROPERTY);
+		if (dir == null) {
+			logger.warn("proofs are not exported as {} is not set", EXPORT_DIR_PROPERTY);
+			return StatementIterator.EMPTY;
+		}
+		Value name = entities.get(objects[1]);
+		if (!(name instanceof Literal))
+			return StatementIterator.EMPTY;
+		// the file should be right in the export directory
+		String fileName = name.stringValue();
+		if (fileName.isEmpty() || fileName.contains("/") || fileName.contains("\\") || fileName.contains(".."))
+			return StatementIterator.EMPTY;
+		ProofExporter.Format format = ProofExporter.Format.NQUADS_STAR;
+		if (objects.length == 3) {
+			Value formatName = objects[2] == 0 ? null : entities.get(objects[2]);
+			format = formatName instanceof Literal ? ProofExporter.Format.of(formatName.stringValue()) : null;
+			if (format == null)
+				return StatementIterator.EMPTY;
+		}
+		AbstractInferencer infer = (AbstractInferencer)ctx.getAttribute(INFERENCER);
+		if (infer.getInferStatementsFlag() == false)
+			return StatementIterator.EMPTY;
+		File file = new File(dir, fileName);
+		// the pattern may be evaluated again within the request, e.g. for each row of a join, but the file is written once
+		String key = EXPORTED + objects[0] + " " + file.getPath();
+		Long done = (Long)ctx.getAttribute(key);
+		if (done != null)
+			return exported(subject, done);
+		AbstractRepositoryConnection conn = (AbstractRepositoryConnection)ctx.getAttribute(REPOSITORY_CONNECTION);
+		PremiseResolver premises = getPremiseResolver(ctx, conn);
+		long exported;
+		try (ProofExporter exporter = new ProofExporter(file, format, entities, rules);
+				StatementIdIterator statements = conn.getStatements(0, 0, 0, true, objects[0], graphMask)) {
+			// the statements are explained and written one by one, so only the current one is kept in memory
+			for (; statements.hasNext() && !ctx.budget.isExhausted(); statements.next()) {
+				long s = statements.subj, p = statements.pred, o = statements.obj;
+				exporter.write(s, p, o, explainStatement(infer, conn, premises, ctx, s, p, o));
+			}
+			exported = exporter.getStatements();
+			// the statements left out or the solutions of the last one cut short by the budget
+			if (ctx.budget.isExhausted()) {
+				exporter.partial();
+				logger.warn("the budget of the query has been exhausted, {} is partial with {} statements", file, exported);
+			} else {
+				logger.debug("exported {} solutions of {} statements to {}", exporter.getSolutions(), exported, file);
+			}
+		} catch (IOException e) {
+			logger.error("could not export the proofs to " + file, e);
+			return StatementIterator.EMPTY;
+		}
+		long count = entities.put(SimpleValueFactory.getInstance().createLiteral(exported), Scope.REQUEST);
+		ctx.setAttribute(key, count);
+		return exported(subject, count);
+	}
+
+	/**
+	 * binds the literal with the number of exported statements to the subject of pr:exportProofs
+	 */
+	private StatementIterator exported(long subject, long count) {
+		if (subject != 0 && subject != count)
+			return StatementIterator.EMPTY;
+		return StatementIterator.create(count, exportId, 0, 0);
+	}
+
+	/**
+	 * @return the solutions of a statement explained in bulk within the request, an explicit statement is its own single premise
+	 */
+	SolutionStore explainStatement(AbstractInferencer infer, AbstractRepositoryConnection conn, PremiseResolver premises,
+			ContextImpl ctx, long subj, long pred, long obj) {
+		try (StatementIdIterator iter = conn.getStatements(subj, pred, obj, contextMask)) {
+			if (iter.hasNext())
+				return SolutionStore.explicit(subj, pred, obj, iter.context);
+		}
+		SolutionCollector collector = new SolutionCollector(infer, conn, premises, ctx, subj, pred, obj);
+		// a bulk explain would just push the interesting statements out of the cache
+		collector.store = false;
+		collector.owner = ctx;
+		return collector.collect();
+	}
+
+	/**
+	 * @return the solution of a statement that exists through the sameAs equivalence of its nodes: an equivalent
+	 * statement that exists on its own followed by the chains of sameAs statements from its nodes to the ones of
+	 * the statement, null if there is no such statement
+	 */
+	SolutionStore sameAsSolution(ContextImpl ctx, AbstractRepositoryConnection conn, long subj, long pred, long obj) {
+		SameAsIndex sameAs = getSameAs(ctx, conn);
+		long objClass = sameAs.find(obj);
+		// any equivalent statement will do, so the members of the classes are not combined beyond the first one found
+		for (long s : sameAs.members(subj)) {
+			for (long p : sameAs.members(pred)) {
+				try (StatementIdIterator iter = conn.getStatements(s, p, 0, contextMask)) {
+					for (; iter.hasNext(); iter.next()) {
+						if ((iter.status & StatementIdIterator.SKIP_ON_REINFER_STATEMENT_STATUS) != 0 || sameAs.find(iter.obj) != objClass)
+							continue;
+						SolutionStore store = new SolutionStore(1, 4);
+						store.begin(RuleIndex.SAME_AS);
+						store.add(iter.subj, iter.pred, iter.obj, iter.context, iter.status);
+						// the statement is of no use if a node is not linked to the one of the explained statement
+						if (!sameAs.chain(iter.subj, subj, store) || !sameAs.chain(iter.pred, pred, store)
+								|| !sameAs.chain(iter.obj, obj, store))
+							continue;
+						store.commit();
+						store.seal();
+						return store;
+					}
 				}
-				return builder.toString();
-			}
-			@Override
-			public boolean equals(Object oObj) {
-				if (!(oObj instanceof Solution))
-					return false;
-				Solution other = (Solution)oObj;
-				if (other == this)
-					return true;
-				if (!other.rule.equals(this.rule))
-					return false;
-				
-				if (other.premises.size() != this.premises.size())
-					return false;
-
-				//crosscheck
-				for (long[] p : this.premises) {
-					boolean exists = false;
-					for (long[] o : other.premises) {
-						if (o[0] == p[0] && o[1] == p[1] && o[2] == p[2] && o[3]== p[3] && o[4] == p[4]) {
-							exists = true;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * @return the sameAs classes of the repository, built once and shared until a transaction changes them. A request
+	 * that started before that builds the classes of its own snapshot rather than share them with the newer ones.
+	 */
+	private SameAsIndex getSameAs(ContextImpl ctx, AbstractRepositoryConnection conn) {
+		SameAsIndex index = (SameAsIndex)ctx.getAttribute(SAME_AS);
+		if (index != null)
+			return index;
+		synchronized (this) {
+			if (ctx.sameAsVersion == sameAsVersion) {
+				if (sameAs == null)
+					sameAs = SameAsIndex.build(conn, sameAsId, graphMask);
+				index = sameAs;
+			}
+		}
+		if (index == null)
+			index = SameAsIndex.build(conn, sameAsId, graphMask);
+		ctx.setAttribute(SAME_AS, index);
+		return index;
+	}
+
+	/**
+	 * @return true if the entity is a plain string literal
+	 */
+	private boolean isString(long id, PluginConnection pluginConnection) {
+		Value value = id == 0 ? null : pluginConnection.getEntities().get(id);
+		return value instanceof Literal && XSD.STRING.equals(((Literal)value).getDatatype());
+	}
+
+	/**
+	 * @return the solutions of the store that come from one of the rules, the store itself if that is all of them
+	 */
+	SolutionStore filterRules(SolutionStore solutions, Set<String> ruleFilter) {
+		if (ruleFilter == null)
+			return solutions;
+		SolutionStore filtered = null;
+		for (int i = 0; i < solutions.size(); i++) {
+			boolean keep = ruleFilter.contains(rules.name(solutions.rule(i)));
+			if (keep && filtered == null)
+				continue;
+			if (filtered == null) {
+				// the first solution dropped, copy the ones before it
+				filtered = new SolutionStore();
+				for (int j = 0; j < i; j++)
+					filtered.append(solutions, j);
+			} else if (keep) {
+				filtered.append(solutions, i);
+			}
+		}
+		if (filtered == null)
+			return solutions;
+		if (solutions.isPartial())
+			filtered.markPartial();
+		filtered.seal();
+		return filtered;
+	}
+
+	/**
+	 * @return the sorted ids of the contexts with one more, unless it is there already
+	 */
+	private static long[] addContext(long[] contexts, long context) {
+		int at = Arrays.binarySearch(contexts, context);
+		if (at >= 0)
+			return contexts;
+		at = -at - 1;
+		long[] added = new long[contexts.length + 1];
+		System.arraycopy(contexts, 0, added, 0, at);
+		added[at] = context;
+		System.arraycopy(contexts, at, added, at + 1, contexts.length - at);
+		return added;
+	}
+
+	/**
+	 * @return the solutions of the store with all premises in the allowed contexts of the resolver, with their
+	 * contexts resolved among these, the store itself if the resolver is not restricted
+	 */
+	SolutionStore filterContexts(SolutionStore solutions, PremiseResolver premises, long[] contexts) {
+		if (contexts == null)
+			return solutions;
+		SolutionStore filtered = new SolutionStore(solutions.size(), solutions.premiseCount());
+		for (int i = 0; i < solutions.size(); i++) {
+			filtered.begin(solutions.rule(i));
+			boolean allowed = true;
+			for (int p = solutions.start(i); p < solutions.end(i) && allowed; p++) {
+				filtered.add(solutions.get(p, SolutionStore.SUBJ), solutions.get(p, SolutionStore.PRED), solutions.get(p, SolutionStore.OBJ),
+						solutions.get(p, SolutionStore.CONTEXT), solutions.get(p, SolutionStore.STATUS));
+				allowed = premises.isAllowed(filtered, filtered.premiseCount() - 1);
+			}
+			if (allowed)
+				filtered.commit();
+			else
+				filtered.rollback();
+		}
+		if (solutions.isPartial())
+			filtered.markPartial();
+		filtered.seal();
+		return filtered;
+	}
+
+	/**
+	 * @return the value of an integer literal or -1 if the entity is not a non-negative integer
+	 */
+	private int parseCount(long id, PluginConnection pluginConnection) {
+		if (id == 0)
+			return -1;
+		Value value = pluginConnection.getEntities().get(id);
+		if (!(value instanceof Literal))
+			return -1;
+		try {
+			return Math.max(-1, ((Literal)value).intValue());
+		} catch (NumberFormatException e) {
+			return -1;
+		}
+	}
+
+	/**
+	 * the memo of premise contexts of the request, shared by all explain patterns
+	 */
+	private PremiseResolver getPremiseResolver(ContextImpl ctx, AbstractRepositoryConnection conn) {
+		return getPremiseResolver(ctx, conn, null);
+	}
+
+	/**
+	 * the memo of premise contexts of the request restricted to a set of contexts, shared by the explain patterns
+	 * with the same set
+	 */
+	private PremiseResolver getPremiseResolver(ContextImpl ctx, AbstractRepositoryConnection conn, long[] contexts) {
+		String key = contexts == null ? PREMISE_RESOLVER : PREMISE_RESOLVER + Arrays.toString(contexts);
+		PremiseResolver resolver = (PremiseResolver)ctx.getAttribute(key);
+		if (resolver == null) {
+			resolver = new PremiseResolver(conn, contextMask, stats, contexts);
+			ctx.setAttribute(key, resolver);
+		}
+		return resolver;
+	}
+
+	/**
+	 * the triples explained within the request, shared by all pr:explainTree patterns
+	 */
+	@SuppressWarnings("unchecked")
+	private Map<Triple, SolutionStore> getExplained(ContextImpl ctx) {
+		Map<Triple, SolutionStore> explained = (Map<Triple, SolutionStore>)ctx.getAttribute(EXPLAINED);
+		if (explained == null) {
+			explained = new HashMap<Triple, SolutionStore>();
+			ctx.setAttribute(EXPLAINED, explained);
+		}
+		return explained;
+	}
+
+	/**
+	 * collects the distinct solutions the inferencer reports for a statement: the self-referential ones are skipped
+	 * and the contexts of the premises are resolved through the request memo
+	 */
+	class SolutionCollector implements ReportSupportedSolution {
+		// instance of the inference to work with
+		final AbstractInferencer infer;
+		// connection to the raw data to get only the AXIOM statements
+		final AbstractRepositoryConnection conn;
+		// request scoped memo of the premise contexts
+		final PremiseResolver premises;
+		// limits on the work of the request
+		final ExplainBudget budget;
+		// the generations taken when the request started, see ContextImpl
+		final long generation, indexGeneration;
+		final long subj, pred, obj;
+		// max number of distinct solutions to enumerate, 0 for all
+		int limit = 0;
+		// set when the inferencer has been stopped before reporting all solutions
+		boolean truncated = false;
+		// whether to keep the solutions in the cache
+		boolean store = true;
+		// the names of the rules to collect the solutions of, null for all
+		Set<String> ruleFilter = null;
+		// the sorted ids of the contexts the premises may come from, checked through the premise resolver, null for any
+		long[] contexts = null;
+		// the request that holds on to the solutions and spills them once it is over its cap, null if they are not kept
+		ContextImpl owner = null;
+		// the per thread store the solutions are collected into
+		SolutionStore solutions = SCRATCH.get();
+
+		SolutionCollector(AbstractInferencer infer, AbstractRepositoryConnection conn, PremiseResolver premises,
+				ContextImpl ctx, long subj, long pred, long obj) {
+			this.infer = infer;
+			this.conn = conn;
+			this.premises = premises;
+			this.budget = ctx.budget;
+			this.generation = ctx.cacheGeneration;
+			this.indexGeneration = ctx.indexGeneration;
+			this.subj = subj;
+			this.pred = pred;
+			this.obj = obj;
+			solutions.reset();
+		}
+
+		/**
+		 * @return the solutions of the statement, taken from the cache if it has been explained already.
+		 * A cached store may hold more solutions than the limit.
+		 */
+		SolutionStore collect() {
+			SolutionStore cached = cache.get(subj, pred, obj);
+			if (cached != null)
+				return filterContexts(filterRules(cached, ruleFilter), premises, contexts);
+			ProvenanceIndex index = ProofPlugin.this.index;
+			if (index != null) {
+				SolutionStore indexed = index.get(subj, pred, obj);
+				if (indexed != null) {
+					if (store)
+						cache.put(subj, pred, obj, indexed, generation);
+					return filterContexts(filterRules(indexed, ruleFilter), premises, contexts);
+				}
+			}
+			if (budget.isExhausted()) {
+				// nothing more may be done within the request
+				exhausted();
+			} else {
+				long start = System.nanoTime();
+				infer.isSupported(subj, pred, obj, 0, 0, this);
+				stats.isSupported(System.nanoTime() - start);
+			}
+			// only a complete enumeration can be reused by other requests
+			boolean complete = !truncated && ruleFilter == null && contexts == null;
+			SolutionStore result = keep();
+			// a huge explain should not keep its memory once done
+			if (solutions.capacity() > MAX_SCRATCH_PREMISES)
+				SCRATCH.remove();
+			if (complete)
+				cardinality.explained(pred, result.size(), result.premiseCount());
+			if (store && complete)
+				cache.put(subj, pred, obj, result, generation);
+			// the index is meant to hold all explained statements, including the ones of a bulk explain
+			if (index != null && complete)
+				index.put(subj, pred, obj, result, indexGeneration);
+			return result;
+		}
+
+		/**
+		 * @return the collected solutions, sealed: a copy of them on the heap or, if they have been spilled,
+		 * the store they have been collected into
+		 */
+		private SolutionStore keep() {
+			if (!solutions.isSpilled())
+				return solutions.copy();
+			SolutionStore spilled = solutions;
+			spilled.seal();
+			stats.spilled(spilled.bytes());
+			// the thread collects into a new store from now on
+			SCRATCH.remove();
+			return spilled;
+		}
+
+		/**
+		 * moves the solutions collected so far off the heap, the rest of them are collected there too
+		 */
+		private void spill() {
+			try {
+				solutions.spill(getDataDir());
+			} catch (IOException e) {
+				logger.warn("could not spill the solutions of {},{},{}, they are kept on the heap", subj, pred, obj, e);
+				// do not try again
+				owner = null;
+			}
+		}
+
+		@Override
+		public boolean report(String ruleName, QueryResultIterator q) {
+			logger.debug("report rule {} for {},{},{}", ruleName, this.subj, this.pred, this.obj);
+			// the matches of the other rules are not even read
+			if (ruleFilter != null && !ruleFilter.contains(ruleName))
+				return false;
+			int rule = rules.intern(ruleName);
+			// append the matches first, so the contexts of all their premises are resolved as a single batch
+			int first = solutions.size();
+			int selfReferential = 0;
+			int rejected = 0;
+			boolean stopped = false;
+			while (q.hasNext()) {
+				if (q instanceof StatementSource) {
+					StatementSource source = (StatementSource)q;
+					Iterator<StatementIdIterator> sol = source.solution();
+					boolean isSame = false;
+					boolean allowed = true;
+					solutions.begin(rule);
+					while (sol.hasNext()) {
+						StatementIdIterator iter = sol.next();
+						if (iter.subj == this.subj && iter.pred == this.pred && iter.obj == this.obj)
+							isSame = true;
+						solutions.add(iter.subj, iter.pred, iter.obj, iter.context, iter.status);
+						// a premise outside the allowed contexts rejects the match before the rest of it is read
+						if (contexts != null && !premises.isAllowed(solutions, solutions.premiseCount() - 1)) {
+							allowed = false;
 							break;
 						}
 					}
-					if (!exists)
-						return false;
+					int added = solutions.premiseCount() - solutions.start(solutions.size());
+					if (!allowed) {
+						solutions.rollback();
+						rejected ++;
+						logger.debug("not added - premise outside the allowed contexts");
+					} else if (!isSame) {
+						solutions.commit();
+					} else {
+						solutions.rollback();
+						selfReferential ++;
+						logger.debug("not added - self referential");
+					}
+					boolean accepted = allowed && !isSame;
+					// the matches of a single call may be many, so the budget is checked for each of them
+					if (!budget.charge(1, solutions.heapBytes())) {
+						stopped = true;
+						break;
+					}
+					// a request over its cap collects the rest of the solutions off the heap
+					if (owner != null && !solutions.isSpilled() && owner.shouldSpill(solutions.heapBytes()))
+						spill();
 				}
+				q.next();
+			}
+			int last = solutions.size();
+			// with a limit we probably need just a few of the matches, so resolve them one at a time,
+			// while the premises restricted to some contexts have been resolved already
+			if (limit == 0 && contexts == null && last > first)
+				premises.resolve(solutions, solutions.start(first), solutions.end(last - 1));
+			int kept = first;
+			for (int i = first; i < last; i++) {
+				if (limit > 0 && contexts == null)
+					premises.resolve(solutions, solutions.start(i), solutions.end(i));
+				if (solutions.keepDistinct(i, kept)) {
+					kept ++;
+					if (limit > 0 && kept >= limit) {
+						// we have enough, stop the inferencer from looking for more
+						stats.reported(i + 1 - first + selfReferential + rejected, i + 1 - kept, selfReferential);
+						solutions.truncate(kept);
+						observed(rule, first, kept);
+						truncated = true;
+						return true;
+					}
+				}
+			}
+			stats.reported(last - first + selfReferential + rejected, last - kept, selfReferential);
+			solutions.truncate(kept);
+			observed(rule, first, kept);
+			logger.debug("{} of {} matches added", kept - first, last - first);
+			if (stopped) {
+				exhausted();
 				return true;
 			}
+			return false;
 		}
+
+		/**
+		 * adds the solutions kept for the rule to the catalog of the rules
+		 */
+		private void observed(int rule, int from, int to) {
+			for (int i = from; i < to; i++)
+				rules.observed(rule, pred, solutions.end(i) - solutions.start(i));
+		}
+
+		/**
+		 * the budget of the request has been exhausted, so the solutions collected so far are all we return
+		 */
+		private void exhausted() {
+			logger.debug("budget exhausted while explaining {},{},{}", subj, pred, obj);
+			truncated = true;
+			solutions.markPartial();
+			stats.budgetExhausted();
+		}
+
+		@Override
+		public AbstractRepositoryConnection getConnection() {
+			return conn;
+		}
+	}
+
+	/**
+	 * the solutions of a single statement: a node of the derivation graph built by pr:explainTree
+	 */
+	static class TreeNode {
+		final Triple triple;
+		final int depth;
+		SolutionStore solutions;
+		TreeNode(Triple triple, int depth) {
+			this.triple = triple;
+			this.depth = depth;
+		}
+	}
+
+	/**
+	 * iterates the premises of the solutions of a statement. The iterator is a cursor over the solution store,
+	 * the current premise is read directly from it by the accessor predicates.
+	 * Subclasses iterate the solutions of several statements by switching to the next one in {@link #nextNode()}.
+	 */
+	class ExplainIter extends StatementIterator {
 		// the request context that stores the instance and the options for that iterator (current inferencer, repository connection etc)
 		ContextImpl ctx;
 		// the key assigned to that instance to it can be retrieved from the context
@@ -384,16 +1513,31 @@ public class ProofPlugin extends PluginBase implements StatelessPlugin, SystemPl
 		AbstractInferencer infer;
 		// connection to the raw data to get only the AXIOM statements
 		AbstractRepositoryConnection conn;
+		// request scoped memo of the premise contexts
+		PremiseResolver premises;
 		long subj, pred, obj;
 		boolean isExplicit = false;
 		boolean isDerivedFromSameAs = false;
 		long aContext = 0;
-		ArrayList<Solution> solutions = new ArrayList<Solution>();
-		Iterator<Solution> iter;
-		Solution current = null;
-		int currentNo = -1;
-		long[] values = null;
-		public ExplainIter(ContextImpl ctx2, long reificationId2, long subj, long pred, long obj, boolean isExplicit,
+		// max number of distinct solutions to enumerate, 0 for all
+		int limit = 0;
+		// the names of the rules to return the solutions of, null for all
+		Set<String> ruleFilter = null;
+		// the sorted ids of the contexts the premises may come from, null for any
+		long[] contexts = null;
+		boolean initialized = false;
+		// the solutions being iterated and the position of the cursor in them
+		SolutionStore solutions;
+		int solutionCount = 0;
+		int solution = -1;
+		int premise = -1;
+		int premiseEnd = 0;
+		// the statement derived by the current solution and its distance from the explained one
+		long headSubj, headPred, headObj;
+		int depth = 0;
+		// the bytes of the solutions the iterator holds on to, accounted in the budget of the request until it is closed
+		final AtomicLong heldBytes = new AtomicLong();
+		public ExplainIter(ContextImpl ctx2, long reificationId2, long explainPredicate, long subj, long pred, long obj, boolean isExplicit,
 				boolean isDerivedFromSameAs, long aContext) {
 			ctx = ctx2;
 			reificationId = reificationId2;
@@ -404,110 +1548,727 @@ public class ProofPlugin extends PluginBase implements StatelessPlugin, SystemPl
 			this.isDerivedFromSameAs = isDerivedFromSameAs;
 			this.aContext = aContext;
 			this.subject = reificationId;
-			this.predicate = explainId;
+			this.predicate = explainPredicate;
+			this.headSubj = subj;
+			this.headPred = pred;
+			this.headObj = obj;
 		}
 		public void init() {
+			initialized = true;
 			if (!isExplicit) {
-				infer.isSupported(subj, pred, obj, 0, 0, this);
-				iter = solutions.iterator();
-				if (iter.hasNext())
-					current = iter.next();
-				if (current != null) {
-					currentNo = 0;
-				}
+				SolutionCollector collector = new SolutionCollector(infer, conn, premises, ctx, subj, pred, obj);
+				collector.limit = limit;
+				collector.ruleFilter = ruleFilter;
+				collector.contexts = contexts;
+				collector.owner = ctx;
+				setNode(hold(collector.collect()), subj, pred, obj, 0);
 			} else {
-				ArrayList<long[]> arr = new ArrayList<long[]>();
-				arr.add(new long[] {subj, pred, obj, aContext});
-				current = new Solution("explicit", arr);
-				currentNo = 0;
-				iter = new Iterator<Solution>() {
+				setNode(hold(filterContexts(filterRules(explicitSolution(), ruleFilter), premises, contexts)), subj, pred, obj, 0);
+			}
+		}
 
-					@Override
-					public boolean hasNext() {
-						return false;
-					}
+		/**
+		 * accounts solutions the iterator holds on to until it is closed or they are {@link #release}-d
+		 * @return the same solutions
+		 */
+		SolutionStore hold(SolutionStore store) {
+			long bytes = store.heapBytes();
+			heldBytes.addAndGet(bytes);
+			ctx.budget.hold(bytes);
+			return store;
+		}
 
-					@Override
-					public Solution next() {
-						return null;
-					}
-					
-				};
+		void release(SolutionStore store) {
+			long bytes = store.heapBytes();
+			heldBytes.addAndGet(-bytes);
+			ctx.budget.release(bytes);
+		}
+
+		/**
+		 * an explicit statement is its own single premise, unless it exists through the sameAs equivalence of its nodes
+		 */
+		SolutionStore explicitSolution() {
+			if (isDerivedFromSameAs) {
+				SolutionStore solution = sameAsSolution(ctx, conn, subj, pred, obj);
+				if (solution != null)
+					return solution;
+			}
+			return SolutionStore.explicit(subj, pred, obj, aContext);
+		}
+
+		/**
+		 * moves the cursor before the first solution of a statement
+		 */
+		void setNode(SolutionStore solutions, long headSubj, long headPred, long headObj, int depth) {
+			this.solutions = solutions;
+			this.solutionCount = limit > 0 ? Math.min(limit, solutions.size()) : solutions.size();
+			this.solution = -1;
+			this.premise = -1;
+			this.premiseEnd = 0;
+			this.headSubj = headSubj;
+			this.headPred = headPred;
+			this.headObj = headObj;
+			this.depth = depth;
+		}
+
+		/**
+		 * moves to the solutions of the next statement to return
+		 * @return false if there are no more statements
+		 */
+		boolean nextNode() {
+			return false;
+		}
+
+		boolean hasCurrent() {
+			return premise >= 0;
+		}
+
+		/**
+		 * @return a field of the current premise
+		 */
+		long value(int field) {
+			return solutions.get(premise, field);
+		}
+
+		/**
+		 * @return an iterator with the single statement that binds the value to the object of an accessor predicate
+		 */
+		StatementIterator row(long predicate, long value) {
+			return StatementIterator.create(reificationId, predicate, value, 0);
+		}
+
+		/**
+		 * @return the index of the rule of the current solution in the plugin {@link RuleIndex}
+		 */
+		int ruleIndex() {
+			return solutions.rule(solution);
+		}
+
+		@Override
+		public void close() {
+			solutions = null;
+			premise = -1;
+			// nothing can be bound from a closed task, so do not keep it until the end of the request
+			ctx.removeTask(reificationId);
+			ctx.budget.release(heldBytes.getAndSet(0));
+		}
+
+		@Override
+		public boolean next() {
+			if (!initialized)
+				init();
+			while (solutions != null) {
+				if (premise + 1 < premiseEnd) {
+					premise ++;
+					stats.row(solutions.rule(solution));
+					return true;
+				}
+				if (solution + 1 < solutionCount) {
+					solution ++;
+					premise = solutions.start(solution) - 1;
+					premiseEnd = solutions.end(solution);
+				} else if (!nextNode()) {
+					break;
+				}
 			}
+			solutions = null;
+			premise = -1;
+			return false;
 		}
+	}
+
+	/**
+	 * iterates the whole derivation graph of a statement: the solutions of the statement are followed by the
+	 * solutions of its inferred premises, level by level, up to a max depth.
+	 * Each triple is explained only once per request, so a premise that is already explained (e.g. statements
+	 * supporting each other) is not expanded again. The triples of a level are independent, so with the fork-join
+	 * pool they are explained in parallel. As for pr:explainAll, each worker resolves the premises through a memo
+	 * of its own rather than wait for the others on the one of the request, and the results are put together on
+	 * the thread of the request once the whole level is explained.
+	 */
+	class TreeIter extends ExplainIter {
+		int maxDepth;
+		// the triples explained within the request
+		Map<Triple, SolutionStore> explained;
+		// the solutions the iterator holds on to and the triples it has added to the ones of the request
+		final HashMap<Triple, SolutionStore> own = new HashMap<Triple, SolutionStore>();
+		final ArrayList<Triple> added = new ArrayList<Triple>();
+		// the nodes of the derivation graph in the order they are returned
+		ArrayList<TreeNode> nodes;
+		int nodeNo = 0;
+		// the premise memos of the workers not in use, there are at most as many as the workers
+		final ArrayDeque<PremiseResolver> idle = new ArrayDeque<PremiseResolver>();
+
+		public TreeIter(ContextImpl ctx2, long reificationId2, long explainPredicate, long subj, long pred, long obj,
+				boolean isExplicit, boolean isDerivedFromSameAs, long aContext) {
+			super(ctx2, reificationId2, explainPredicate, subj, pred, obj, isExplicit, isDerivedFromSameAs, aContext);
+		}
+
 		@Override
-		public boolean report(String ruleName, QueryResultIterator q) {
-			logger.debug("report rule {} for {},{},{}", ruleName, this.subj, this.pred, this.obj);
-			while (q.hasNext()) {
-				if (q instanceof StatementSource) {
-					StatementSource source = (StatementSource)q;
-					Iterator<StatementIdIterator> sol = source.solution();
-					boolean isSame = false;
-					ArrayList<long[]> aSolution = new ArrayList<long[]>();
-					while (sol.hasNext()) {
-						StatementIdIterator iter = sol.next();
-						// try finding an existing explicit or in-context with same subj, pred and obj
-						try(StatementIdIterator ctxIter = conn.getStatements(iter.subj, iter.pred, iter.obj, true, 0, contextMask)) {
-							while (ctxIter.hasNext()) {
-								if (ctxIter.context != SystemGraphs.EXPLICIT_GRAPH.getId()) {
-									iter.context = ctxIter.context;
-									iter.status = ctxIter.status;
-									break;
+		public void init() {
+			initialized = true;
+			nodes = new ArrayList<TreeNode>();
+			Triple root = new Triple(subj, pred, obj);
+			if (isExplicit) {
+				TreeNode node = new TreeNode(root, 0);
+				node.solutions = hold(explicitSolution());
+				nodes.add(node);
+				nextNode();
+				return;
+			}
+			HashSet<Triple> seen = new HashSet<Triple>();
+			seen.add(root);
+			ArrayList<TreeNode> level = new ArrayList<TreeNode>();
+			level.add(new TreeNode(root, 0));
+			while (!level.isEmpty()) {
+				explainLevel(level);
+				ArrayList<TreeNode> nextLevel = new ArrayList<TreeNode>();
+				for (TreeNode node : level) {
+					nodes.add(node);
+					if (node.depth >= maxDepth)
+						continue;
+					SolutionStore store = node.solutions;
+					for (int p = 0; p < store.premiseCount(); p++) {
+						long s = store.get(p, SolutionStore.SUBJ);
+						long pr = store.get(p, SolutionStore.PRED);
+						long o = store.get(p, SolutionStore.OBJ);
+						Triple premise = new Triple(s, pr, o);
+						// a premise seen already is either explained or about to be, which also cuts the cycles
+						if (seen.add(premise) && !premises.isExplicit(s, pr, o))
+							nextLevel.add(new TreeNode(premise, node.depth + 1));
+					}
+				}
+				level = nextLevel;
+			}
+			nextNode();
+		}
+
+		/**
+		 * explains the triples of a level, on the fork-join pool if there is one and there are several of them
+		 */
+		void explainLevel(ArrayList<TreeNode> level) {
+			ArrayList<FutureTask<SolutionStore>> tasks = new ArrayList<FutureTask<SolutionStore>>(level.size());
+			for (TreeNode node : level) {
+				final Triple triple = node.triple;
+				FutureTask<SolutionStore> task = null;
+				if (explainPool != null && level.size() > 1 && !own.containsKey(triple) && !explained.containsKey(triple)) {
+					task = new FutureTask<SolutionStore>(new Callable<SolutionStore>() {
+						@Override
+						public SolutionStore call() {
+							PremiseResolver resolver;
+							synchronized (idle) {
+								resolver = idle.poll();
+							}
+							if (resolver == null)
+								resolver = new PremiseResolver(conn, contextMask, stats);
+							try {
+								return collect(triple, resolver);
+							} finally {
+								synchronized (idle) {
+									idle.push(resolver);
 								}
-								ctxIter.next();
 							}
-							ctxIter.close();
 						}
-						if (iter.subj == this.subj && iter.pred == this.pred && iter.obj == this.obj)
-							isSame = true;
-						aSolution.add(new long[] {iter.subj, iter.pred, iter.obj, iter.context, iter.status});
+					});
+					explainPool.execute(task);
+				}
+				tasks.add(task);
+			}
+			// all tasks are waited for, as they use the connection of the request
+			boolean interrupted = false;
+			Throwable failure = null;
+			for (int i = 0; i < level.size(); i++) {
+				TreeNode node = level.get(i);
+				FutureTask<SolutionStore> task = tasks.get(i);
+				while (task != null) {
+					try {
+						explained.put(node.triple, task.get());
+						added.add(node.triple);
+						break;
+					} catch (InterruptedException e) {
+						interrupted = true;
+					} catch (ExecutionException e) {
+						if (failure == null)
+							failure = e.getCause();
+						break;
 					}
-					Solution solution = new Solution(ruleName, aSolution);
-					logger.debug("isSelfReferentioal {} for solution {}", isSame, solution);
-					if (!isSame) {
-						if (!solutions.contains(solution)) {
-							logger.debug("added");
-							solutions.add(solution);
-						} else {
-							logger.debug("already added");
-						}
-					} else {
-						logger.debug("not added - self referential");
+				}
+				if (failure == null)
+					node.solutions = explain(node.triple);
+			}
+			if (interrupted)
+				Thread.currentThread().interrupt();
+			if (failure != null)
+				throw new RuntimeException("failed to explain a premise of " + subj + "," + pred + "," + obj, failure);
+		}
+
+		SolutionStore explain(Triple triple) {
+			SolutionStore solutions = own.get(triple);
+			if (solutions != null)
+				return solutions;
+			solutions = explained.get(triple);
+			if (solutions == null) {
+				solutions = collect(triple, premises);
+				explained.put(triple, solutions);
+				added.add(triple);
+			}
+			own.put(triple, hold(solutions));
+			return solutions;
+		}
+
+		SolutionStore collect(Triple triple, PremiseResolver resolver) {
+			SolutionCollector collector = new SolutionCollector(infer, conn, resolver, ctx, triple.subj, triple.pred, triple.obj);
+			// the whole derivation is held until the iterator is closed
+			collector.owner = ctx;
+			return collector.collect();
+		}
+
+		@Override
+		boolean nextNode() {
+			if (nodes == null || nodeNo >= nodes.size())
+				return false;
+			TreeNode node = nodes.get(nodeNo++);
+			setNode(node.solutions, node.triple.subj, node.triple.pred, node.triple.obj, node.depth);
+			return true;
+		}
+
+		@Override
+		public void close() {
+			super.close();
+			nodes = null;
+			// the other trees of the request explain these again rather than keep them once nothing holds them
+			for (Triple triple : added)
+				explained.remove(triple);
+			added.clear();
+			own.clear();
+			idle.clear();
+		}
+	}
+
+	/**
+	 * the depth of the shortest derivation of a statement, as far as it is known
+	 */
+	static class Depth {
+		// the largest depth the statement is known not to be derivable within, -1 if none
+		int failed = -1;
+		// the smallest depth the statement is known to be derivable within and the solution that does it
+		int proven = Integer.MAX_VALUE;
+		int solution = -1;
+	}
+
+	/**
+	 * iterates a single derivation of a statement of minimal depth: one solution of the statement and one of each
+	 * of its inferred premises, where the depth of an explicit statement is 0 and the depth of an inferred one is
+	 * 1 + the max depth of the premises of its solution.
+	 *
+	 * The depth is found by iterative deepening: the statement is checked for a derivation within 1, 2, ... levels
+	 * up to the max depth, so a solution is never followed deeper than the shortest proof known and the cycles end
+	 * with the depth. The solutions of each triple are collected once per request and what is known about its depth
+	 * is memoized, so the triples shared by several solutions or levels are not searched again.
+	 *
+	 * The max depth means the same as for pr:explainTree, the depth of the deepest statement returned, but only a
+	 * complete derivation is returned: with 0 the statement is returned if it has a solution with explicit premises
+	 * only, and nothing is returned if no derivation fits within the max depth.
+	 */
+	class ShortestIter extends TreeIter {
+		final HashMap<Triple, Depth> depths = new HashMap<Triple, Depth>();
+
+		public ShortestIter(ContextImpl ctx2, long reificationId2, long explainPredicate, long subj, long pred, long obj,
+				boolean isExplicit, boolean isDerivedFromSameAs, long aContext) {
+			super(ctx2, reificationId2, explainPredicate, subj, pred, obj, isExplicit, isDerivedFromSameAs, aContext);
+		}
+
+		@Override
+		public void init() {
+			initialized = true;
+			nodes = new ArrayList<TreeNode>();
+			Triple root = new Triple(subj, pred, obj);
+			if (isExplicit) {
+				TreeNode node = new TreeNode(root, 0);
+				node.solutions = hold(explicitSolution());
+				nodes.add(node);
+				nextNode();
+				return;
+			}
+			HashSet<Triple> seen = new HashSet<Triple>();
+			seen.add(root);
+			ArrayList<TreeNode> level = new ArrayList<TreeNode>();
+			level.add(new TreeNode(root, 0));
+			while (!level.isEmpty()) {
+				ArrayList<TreeNode> nextLevel = new ArrayList<TreeNode>();
+				for (TreeNode node : level) {
+					// each premise is derivable within the depth left, unless the budget has stopped the search.
+					// As for pr:explainTree the max depth is the one of the deepest statement returned, while
+					// its premises, one level deeper, are all explicit
+					Depth depth = shortest(node.triple, maxDepth - node.depth + 1);
+					if (depth == null)
+						continue;
+					node.solutions = explain(node.triple).solution(depth.solution);
+					nodes.add(node);
+					for (int p = 0; p < node.solutions.premiseCount(); p++) {
+						Triple premise = new Triple(node.solutions.get(p, SolutionStore.SUBJ),
+								node.solutions.get(p, SolutionStore.PRED), node.solutions.get(p, SolutionStore.OBJ));
+						if (seen.add(premise) && !isExplicit(premise))
+							nextLevel.add(new TreeNode(premise, node.depth + 1));
 					}
 				}
-				q.next();
+				level = nextLevel;
 			}
+			nextNode();
+		}
+
+		/**
+		 * @return the depth of the shortest derivation of an inferred triple within the max depth, null if there is none
+		 */
+		Depth shortest(Triple triple, int maxDepth) {
+			Depth depth = depth(triple);
+			for (int bound = Math.max(1, depth.failed + 1); bound <= maxDepth; bound++) {
+				if (derivable(triple, bound))
+					return depth;
+				if (ctx.budget.isExhausted())
+					break;
+			}
+			return null;
+		}
+
+		/**
+		 * @return true if the triple is derivable within that many levels
+		 */
+		boolean derivable(Triple triple, int bound) {
+			Depth depth = depth(triple);
+			if (depth.proven <= bound)
+				return true;
+			if (depth.failed >= bound || ctx.budget.isExhausted())
+				return false;
+			SolutionStore solutions = explain(triple);
+			for (int i = 0; i < solutions.size(); i++) {
+				boolean all = true;
+				for (int p = solutions.start(i); p < solutions.end(i) && all; p++) {
+					all = derivable(new Triple(solutions.get(p, SolutionStore.SUBJ), solutions.get(p, SolutionStore.PRED),
+							solutions.get(p, SolutionStore.OBJ)), bound - 1);
+				}
+				if (all) {
+					depth.proven = bound;
+					depth.solution = i;
+					return true;
+				}
+			}
+			// a search stopped by the budget proves nothing
+			if (!ctx.budget.isExhausted())
+				depth.failed = bound;
 			return false;
 		}
 
+		private Depth depth(Triple triple) {
+			Depth depth = depths.get(triple);
+			if (depth == null) {
+				depth = new Depth();
+				if (isExplicit(triple))
+					depth.proven = 0;
+				else
+					depth.failed = 0;
+				depths.put(triple, depth);
+			}
+			return depth;
+		}
+
+		private boolean isExplicit(Triple triple) {
+			return premises.isExplicit(triple.subj, triple.pred, triple.obj);
+		}
+
 		@Override
 		public void close() {
-			current = null;
-			solutions = null;
+			super.close();
+			depths.clear();
+		}
+	}
+
+	/**
+	 * iterates the inferred statements supported by a premise and the solutions of each of them that use it.
+	 *
+	 * The candidates are the inferred statements that have the subject or the object of the premise in some position,
+	 * as most rules share a node of each premise with their head. The someValuesFrom and allValuesFrom rules do not:
+	 * their (y rdf:type D) premise shares only rdf:type with the (x rdf:type C) head, where C is linked to D by the
+	 * restriction, so for an rdf:type premise the candidates also include the rdf:type statements of the nodes
+	 * linked to its object by a statement. The owl:sameAs statements the functional property and key rules derive
+	 * from an (p rdf:type owl:FunctionalProperty) premise, which shares no node with them, are not found from that
+	 * premise. The candidates are read from the indexes and explained one at a time,
+	 * through the cache and the provenance index if there is one, and the ones with a solution that uses the premise
+	 * are returned. At most {@link #maxSupportCandidates} candidates are explained, and if that or the budget
+	 * leaves some of them out the last statement returned is marked as partial.
+	 */
+	class SupportsIter extends ExplainIter {
+		// the patterns of the candidate statements: the subject and the object of the premise in each position,
+		// followed by the rdf:type statements of the nodes linked to the object of an rdf:type premise
+		final ArrayList<long[]> lookups = new ArrayList<long[]>();
+		boolean linked = false;
+		int lookup = -1;
+		StatementIdIterator statements;
+		int candidates = 0;
+		// set when some of the candidates have been left out
+		boolean cut = false;
+		// the next supported statement, found before the current one is returned so it is known if it is the last
+		SolutionStore next;
+		long nextSubj, nextPred, nextObj;
+
+		public SupportsIter(ContextImpl ctx2, long reificationId2, long explainPredicate, long subj, long pred, long obj) {
+			super(ctx2, reificationId2, explainPredicate, subj, pred, obj, false, false, 0);
+			long[] nodes = subj == obj ? new long[] {subj} : new long[] {subj, obj};
+			for (int position = 0; position < 3; position++) {
+				for (long node : nodes) {
+					long[] pattern = new long[3];
+					pattern[position] = node;
+					lookups.add(pattern);
+				}
+			}
 		}
 
 		@Override
-		public boolean next() {
-			while (current != null) {
-				if (currentNo < current.premises.size()) {
-					values = current.premises.get(currentNo);
-					currentNo ++;
-					return true;
-				} else {
-					values = null;
-					currentNo = 0;
-					if (iter.hasNext())
-						current = iter.next();
-					else
-						current = null;
+		public void init() {
+			initialized = true;
+			next = find();
+			nextNode();
+		}
+
+		@Override
+		boolean nextNode() {
+			if (next == null)
+				return false;
+			SolutionStore current = next;
+			long s = nextSubj, p = nextPred, o = nextObj;
+			next = find();
+			if (next == null && cut)
+				current.markPartial();
+			// only the solutions of the current statement and of the next one are held
+			if (this.solutions != null)
+				release(this.solutions);
+			setNode(current, s, p, o, 0);
+			return true;
+		}
+
+		/**
+		 * @return the solutions of the next supported statement that use the premise, null if there is none
+		 */
+		private SolutionStore find() {
+			while (true) {
+				if (statements == null || !statements.hasNext()) {
+					if (statements != null)
+						statements.close();
+					statements = null;
+					if (lookup + 1 >= lookups.size() && !addLinked())
+						return null;
+					long[] pattern = lookups.get(++lookup);
+					statements = conn.getStatements(pattern[0], pattern[1], pattern[2], inferredMask);
+					continue;
+				}
+				long s = statements.subj, p = statements.pred, o = statements.obj;
+				statements.next();
+				// a statement found by several patterns is explained for the first of them only
+				if ((s == subj && p == pred && o == obj) || matchesEarlier(s, p, o))
+					continue;
+				if (ctx.budget.isExhausted() || candidates >= maxSupportCandidates) {
+					cut = true;
+					return null;
+				}
+				candidates++;
+				SolutionStore solutions = explainStatement(infer, conn, premises, ctx, s, p, o);
+				SolutionStore supported = null;
+				for (int i = 0; i < solutions.size(); i++) {
+					if (!solutions.uses(i, subj, pred, obj))
+						continue;
+					if (supported == null)
+						supported = new SolutionStore();
+					supported.append(solutions, i);
+				}
+				if (solutions.isPartial())
+					cut = true;
+				if (supported != null) {
+					supported.seal();
+					nextSubj = s;
+					nextPred = p;
+					nextObj = o;
+					return hold(supported);
+				}
+			}
+		}
+
+		/**
+		 * adds the lookups of the rdf:type statements of the nodes linked to the object of an rdf:type premise,
+		 * once the other lookups are done
+		 * @return false if there are none
+		 */
+		private boolean addLinked() {
+			if (linked || pred != typeId)
+				return false;
+			linked = true;
+			HashSet<Long> nodes = new HashSet<Long>();
+			for (int position = 0; position < 3; position += 2) {
+				try (StatementIdIterator iter = position == 0 ? conn.getStatements(obj, 0, 0, graphMask)
+						: conn.getStatements(0, 0, obj, graphMask)) {
+					for (; iter.hasNext(); iter.next()) {
+						long node = position == 0 ? iter.obj : iter.subj;
+						if (node == obj || !nodes.add(node))
+							continue;
+						if (nodes.size() > maxSupportCandidates) {
+							// there are more than could be explained anyway
+							cut = true;
+							break;
+						}
+						lookups.add(new long[] {0, typeId, node});
+					}
 				}
 			}
+			return lookup + 1 < lookups.size();
+		}
+
+		private boolean matchesEarlier(long s, long p, long o) {
+			for (int i = 0; i < lookup; i++) {
+				long[] pattern = lookups.get(i);
+				if ((pattern[0] == 0 || pattern[0] == s) && (pattern[1] == 0 || pattern[1] == p) && (pattern[2] == 0 || pattern[2] == o))
+					return true;
+			}
 			return false;
 		}
+
 		@Override
-		public AbstractRepositoryConnection getConnection() {
-			return conn;
+		public void close() {
+			super.close();
+			if (statements != null) {
+				statements.close();
+				statements = null;
+			}
+		}
+	}
+
+	/**
+	 * iterates the solutions of all statements in a graph, in the order of the graph index.
+	 * The statements are read on the request thread and explained ahead on the fork-join pool, if there is one,
+	 * while the results are returned in order as soon as the next statement in line is explained.
+	 * Only a bounded window of statements is explained ahead, so the memory does not depend on the graph size.
+	 * Each worker resolves the premises through a memo of its own, so the workers do not wait for each other on
+	 * the one of the request, and closing the iterator waits for the explains in progress, as they use the
+	 * connection of the request.
+	 */
+	class AllIter extends ExplainIter {
+		final long graph;
+		StatementIdIterator statements;
+		// the statements being explained, in the order they are returned
+		ArrayDeque<FutureTask<TreeNode>> ahead = new ArrayDeque<FutureTask<TreeNode>>();
+		int window;
+		// the premise memos not in use by a worker, there are at most as many as the workers
+		final ArrayDeque<PremiseResolver> idle = new ArrayDeque<PremiseResolver>();
+		// the explains in progress and whether the iterator has been closed, guarded by idle
+		int running = 0;
+		boolean closed = false;
+
+		public AllIter(ContextImpl ctx2, long reificationId2, long explainPredicate, long graph) {
+			super(ctx2, reificationId2, explainPredicate, 0, 0, 0, false, false, 0);
+			this.graph = graph;
+			this.object = graph;
+		}
+
+		@Override
+		public void init() {
+			initialized = true;
+			window = explainPool == null ? 1 : EXPLAIN_AHEAD * explainPool.getParallelism();
+			statements = conn.getStatements(0, 0, 0, true, graph, graphMask);
+			fill();
+			nextNode();
+		}
+
+		private void fill() {
+			// once the budget is exhausted the statements explained already are the last ones returned
+			while (ahead.size() < window && !ctx.budget.isExhausted() && statements.hasNext()) {
+				final Triple triple = new Triple(statements.subj, statements.pred, statements.obj);
+				statements.next();
+				FutureTask<TreeNode> task = new FutureTask<TreeNode>(new Callable<TreeNode>() {
+					@Override
+					public TreeNode call() {
+						if (explainPool == null)
+							return explain(triple, premises);
+						PremiseResolver resolver;
+						synchronized (idle) {
+							if (closed)
+								return null;
+							running++;
+							resolver = idle.poll();
+						}
+						if (resolver == null)
+							resolver = new PremiseResolver(conn, contextMask, stats);
+						try {
+							return explain(triple, resolver);
+						} finally {
+							synchronized (idle) {
+								idle.push(resolver);
+								running--;
+								idle.notifyAll();
+							}
+						}
+					}
+				});
+				if (explainPool != null)
+					explainPool.execute(task);
+				else
+					task.run();
+				ahead.add(task);
+			}
+		}
+
+		TreeNode explain(Triple triple, PremiseResolver resolver) {
+			TreeNode node = new TreeNode(triple, 0);
+			node.solutions = hold(explainStatement(infer, conn, resolver, ctx, triple.subj, triple.pred, triple.obj));
+			return node;
+		}
+
+		@Override
+		boolean nextNode() {
+			FutureTask<TreeNode> task = ahead.poll();
+			if (task == null || statements == null)
+				return false;
+			TreeNode node;
+			try {
+				node = task.get();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new RuntimeException("interrupted while explaining graph " + graph, e);
+			} catch (ExecutionException e) {
+				throw new RuntimeException("failed to explain a statement of graph " + graph, e.getCause());
+			} finally {
+				fill();
+			}
+			// the solutions explained ahead are held until they are returned
+			if (solutions != null)
+				release(solutions);
+			setNode(node.solutions, node.triple.subj, node.triple.pred, node.triple.obj, 0);
+			return true;
+		}
+
+		@Override
+		public void close() {
+			// the explains not started yet are skipped, the ones in progress are waited for
+			for (FutureTask<TreeNode> task : ahead)
+				task.cancel(false);
+			ahead.clear();
+			boolean interrupted = false;
+			synchronized (idle) {
+				closed = true;
+				while (running > 0) {
+					try {
+						idle.wait();
+					} catch (InterruptedException e) {
+						interrupted = true;
+					}
+				}
+				idle.clear();
+			}
+			if (interrupted)
+				Thread.currentThread().interrupt();
+			// releases the solutions held by the explains done ahead as well
+			super.close();
+			if (statements != null) {
+				statements.close();
+				statements = null;
+			}
 		}
-		
 	}
 }
@@ -0,0 +1,214 @@
+package com.ontotext.trree.plugin.proof;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Repository wide statistics of the explains, to find out why a query with pr:explain is slow.
+ * The counters are updated by all running queries, some of them per result row, so they are striped
+ * (LongAdder) and cost about as much as a plain field increment when there is no contention.
+ * The statistics are read through JMX and the pr:stats predicate.
+ */
+class ProofStats implements ProofStatsMXBean {
+	private final RuleIndex rules;
+	private final ProofPlugin plugin;
+
+	private final LongAdder isSupportedCalls = new LongAdder();
+	private final LongAdder isSupportedTime = new LongAdder();
+	private final LongAdder reported = new LongAdder();
+	private final LongAdder duplicates = new LongAdder();
+	private final LongAdder selfReferential = new LongAdder();
+	private final LongAdder premiseLookups = new LongAdder();
+	private final LongAdder rows = new LongAdder();
+	private final LongAdder budgetExhausted = new LongAdder();
+	private final LongAdder spilledBytes = new LongAdder();
+	// rows by rule index, grown as new rules are reported
+	private volatile LongAdder[] ruleRows = new LongAdder[0];
+
+	ProofStats(RuleIndex rules, ProofPlugin plugin) {
+		this.rules = rules;
+		this.plugin = plugin;
+	}
+
+	/**
+	 * a call to the inferencer that took the given time
+	 */
+	void isSupported(long nanos) {
+		isSupportedCalls.increment();
+		isSupportedTime.add(nanos);
+	}
+
+	/**
+	 * the matches reported by the inferencer, split by what has happened to them
+	 */
+	void reported(int matches, int duplicate, int selfReferential) {
+		reported.add(matches);
+		duplicates.add(duplicate);
+		this.selfReferential.add(selfReferential);
+	}
+
+	/**
+	 * an enumeration stopped by the budget of the request
+	 */
+	void budgetExhausted() {
+		budgetExhausted.increment();
+	}
+
+	/**
+	 * solutions spilled off the heap by a request that holds more than its cap
+	 */
+	void spilled(long bytes) {
+		spilledBytes.add(bytes);
+	}
+
+	void premiseLookup() {
+		premiseLookups.increment();
+	}
+
+	void row(int rule) {
+		rows.increment();
+		LongAdder[] counters = ruleRows;
+		if (rule >= counters.length)
+			counters = grow(rule);
+		counters[rule].increment();
+	}
+
+	private synchronized LongAdder[] grow(int rule) {
+		LongAdder[] counters = ruleRows;
+		if (rule < counters.length)
+			return counters;
+		LongAdder[] extended = Arrays.copyOf(counters, Math.max(rule + 1, rules.size()));
+		for (int i = counters.length; i < extended.length; i++)
+			extended[i] = new LongAdder();
+		ruleRows = extended;
+		return extended;
+	}
+
+	@Override
+	public long getIsSupportedCalls() {
+		return isSupportedCalls.sum();
+	}
+
+	@Override
+	public long getIsSupportedTimeMillis() {
+		return isSupportedTime.sum() / 1000000;
+	}
+
+	@Override
+	public long getReportedSolutions() {
+		return reported.sum();
+	}
+
+	@Override
+	public long getDuplicateSolutions() {
+		return duplicates.sum();
+	}
+
+	@Override
+	public long getSelfReferentialSolutions() {
+		return selfReferential.sum();
+	}
+
+	@Override
+	public long getPremiseLookups() {
+		return premiseLookups.sum();
+	}
+
+	@Override
+	public long getRows() {
+		return rows.sum();
+	}
+
+	@Override
+	public long getBudgetExhausted() {
+		return budgetExhausted.sum();
+	}
+
+	@Override
+	public long getSpilledBytes() {
+		return spilledBytes.sum();
+	}
+
+	@Override
+	public Map<String, Long> getRowsPerRule() {
+		LinkedHashMap<String, Long> map = new LinkedHashMap<String, Long>();
+		LongAdder[] counters = ruleRows;
+		for (int i = 0; i < counters.length; i++) {
+			long count = counters[i].sum();
+			if (count > 0)
+				map.put(rules.name(i), count);
+		}
+		return map;
+	}
+
+	@Override
+	public long getCacheHits() {
+		return plugin.getCache().getHits();
+	}
+
+	@Override
+	public long getCacheMisses() {
+		return plugin.getCache().getMisses();
+	}
+
+	@Override
+	public int getCacheSize() {
+		return plugin.getCache().size();
+	}
+
+	@Override
+	public long getCacheBytes() {
+		return plugin.getCache().bytes();
+	}
+
+	@Override
+	public long getCacheEvictions() {
+		return plugin.getCache().getEvictions();
+	}
+
+	/**
+	 * @return the statistics by name, as returned by pr:stats
+	 */
+	Map<String, Long> toMap() {
+		LinkedHashMap<String, Long> map = new LinkedHashMap<String, Long>();
+		map.put("isSupportedCalls", getIsSupportedCalls());
+		map.put("isSupportedTimeMillis", getIsSupportedTimeMillis());
+		map.put("reportedSolutions", getReportedSolutions());
+		map.put("duplicateSolutions", getDuplicateSolutions());
+		map.put("selfReferentialSolutions", getSelfReferentialSolutions());
+		map.put("premiseLookups", getPremiseLookups());
+		map.put("rows", getRows());
+		map.put("budgetExhausted", getBudgetExhausted());
+		map.put("spilledBytes", getSpilledBytes());
+		for (Map.Entry<String, Long> entry : getRowsPerRule().entrySet())
+			map.put("rows/" + entry.getKey(), entry.getValue());
+		map.put("cacheHits", getCacheHits());
+		map.put("cacheMisses", getCacheMisses());
+		map.put("cacheSize", (long)getCacheSize());
+		map.put("cacheBytes", getCacheBytes());
+		map.put("cacheEvictions", getCacheEvictions());
+		return map;
+	}
+
+	@Override
+	public void reset() {
+		isSupportedCalls.reset();
+		isSupportedTime.reset();
+		reported.reset();
+		duplicates.reset();
+		selfReferential.reset();
+		premiseLookups.reset();
+		rows.reset();
+		budgetExhausted.reset();
+		spilledBytes.reset();
+		for (LongAdder counter : ruleRows)
+			counter.reset();
+	}
+
+	@Override
+	public String toString() {
+		return toMap().toString();
+	}
+}
@@ -0,0 +1,40 @@
+package com.ontotext.trree.plugin.proof;
+
+import java.util.Map;
+
+/**
+ * JMX view of the explain statistics of a repository, see {@link ProofStats}
+ */
+public interface ProofStatsMXBean {
+	long getIsSupportedCalls();
+
+	long getIsSupportedTimeMillis();
+
+	long getReportedSolutions();
+
+	long getDuplicateSolutions();
+
+	long getSelfReferentialSolutions();
+
+	long getPremiseLookups();
+
+	long getRows();
+
+	long getBudgetExhausted();
+
+	long getSpilledBytes();
+
+	Map<String, Long> getRowsPerRule();
+
+	long getCacheHits();
+
+	long getCacheMisses();
+
+	int getCacheSize();
+
+	long getCacheBytes();
+
+	long getCacheEvictions();
+
+	void reset();
+}
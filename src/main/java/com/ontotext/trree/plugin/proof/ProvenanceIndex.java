@@ -0,0 +1,600 @@
+package com.ontotext.trree.plugin.proof;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Optional persistent index of the solutions of the explained statements, kept in a memory-mapped file in the
+ * plugin data directory, so an explained statement is read back in constant time, even after a restart.
+ *
+ * The file is a log of records after a header with the length of the valid data, whether the file has been
+ * closed cleanly and the fingerprint of the repository the entries have been explained in:
+ * - ENTRY: the triple, its solutions (premise end and rule of each) and the premises, {@link SolutionStore#WIDTH} longs each
+ * - REMOVE: the triple of an entry that is no longer valid
+ * - RULE: a rule name, the entries refer to the rules by the order of these records in the file
+ * The offsets of the valid entries are kept in memory and rebuilt by replaying the log when the file is opened.
+ * The mapping is written to disk only when the index is closed, so a file that has been changed since it was last
+ * opened and not closed cleanly may miss some of the records and is started over, and so is a file written for
+ * another state of the repository, e.g. one changed while the index has been disabled.
+ *
+ * The index is kept consistent with the data by collecting the statements changed within a transaction and dropping
+ * the affected entries once it completes:
+ * - a removed statement drops the entry of that statement and all entries that use it as a premise, which are found
+ *   by scanning the premises of all entries, as a premise need not share any node with the statement it derives
+ * - an added statement may enable new derivations of the heads that have one of its nodes in any position, e.g.
+ *   (y rdf:type D) of the someValuesFrom and allValuesFrom rules shares just rdf:type with (x rdf:type C),
+ *   so their entries are dropped, found through the nodes of the heads. The owl:sameAs heads of the functional
+ *   property and key rules may share no node with their premises, so they are dropped by any addition.
+ * The changes the rules follow through other nodes, of owl:sameAs and of RDF lists, drop all entries
+ * through {@link #invalidateAll()}. Nothing is written while a transaction is in progress.
+ */
+class ProvenanceIndex {
+	// system property that enables the index
+	static final String ENABLED_PROPERTY = "graphdb.proof.index";
+	static final String FILE_NAME = "provenance.idx";
+
+	private static final int MAGIC = 0x50524f46;
+	private static final int VERSION = 3;
+	// magic, version, the end of the valid data, the state of the file and the fingerprint of the repository
+	private static final int HEADER = 32;
+	private static final int END_OFFSET = 8;
+	private static final int STATE_OFFSET = 16;
+	private static final int FINGERPRINT_OFFSET = 24;
+	private static final int CLEAN = 1, DIRTY = 2;
+	private static final byte ENTRY = 1, REMOVE = 2, RULE = 3;
+	private static final int MIN_MAPPED = 1 << 20;
+	// above that many changed statements in a transaction we simply drop everything
+	private static final int MAX_TRACKED_CHANGES = 10000;
+
+	private static final Logger logger = LoggerFactory.getLogger(ProvenanceIndex.class);
+
+	private final File file;
+	private final RuleIndex rules;
+	// the id of owl:sameAs
+	private final long sameAs;
+	// the fingerprint of the repository the file is expected to have been written for
+	private long fingerprint;
+	private RandomAccessFile raf;
+	private FileChannel channel;
+	private MappedByteBuffer buffer;
+	private int end;
+	// whether the file has been changed since it has been opened
+	private boolean dirty = false;
+	// offsets of the valid entries
+	private final HashMap<Triple, Integer> entries = new HashMap<Triple, Integer>();
+	// the valid entries by the nodes of their statement
+	private final HashMap<Long, HashSet<Triple>> byNode = new HashMap<Long, HashSet<Triple>>();
+	// rule names in the order of the RULE records and the ids of the ones seen already
+	private final ArrayList<String> fileRules = new ArrayList<String>();
+	private final HashMap<String, Integer> fileRuleIds = new HashMap<String, Integer>();
+	// bytes taken by the entries that are no longer valid
+	private long deadBytes = 0;
+	private boolean full = false;
+
+	private long generation = 0;
+	private boolean inTransaction = false;
+	private boolean pendingClear = false;
+	private HashSet<Triple> pendingAdditions = new HashSet<Triple>();
+	private HashSet<Triple> pendingRemovals = new HashSet<Triple>();
+
+	/**
+	 * @param fingerprint the fingerprint of the repository now, the entries written for another one are dropped
+	 * @param sameAs the id of owl:sameAs
+	 */
+	ProvenanceIndex(File file, RuleIndex rules, long fingerprint, long sameAs) throws IOException {
+		this.file = file;
+		this.rules = rules;
+		this.fingerprint = fingerprint;
+		this.sameAs = sameAs;
+		open();
+	}
+
+	private void open() throws IOException {
+		raf = new RandomAccessFile(file, "rw");
+		boolean created;
+		try {
+			channel = raf.getChannel();
+			created = channel.size() < HEADER;
+			map(Math.max(channel.size(), MIN_MAPPED));
+		} catch (IOException e) {
+			raf.close();
+			raf = null;
+			channel = null;
+			throw e;
+		}
+		dirty = false;
+		if (created || buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION || buffer.getInt(STATE_OFFSET) != CLEAN
+				|| buffer.getLong(FINGERPRINT_OFFSET) != fingerprint) {
+			if (!created && (buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION))
+				logger.warn("starting over the provenance index {} written by another version", file);
+			else if (!created && buffer.getInt(STATE_OFFSET) != CLEAN)
+				logger.warn("starting over the provenance index {} as it has not been closed cleanly", file);
+			else if (!created)
+				logger.warn("starting over the provenance index {} as the repository has changed since it has been written", file);
+			buffer.putInt(0, MAGIC);
+			buffer.putInt(4, VERSION);
+			setEnd(HEADER);
+			buffer.putLong(FINGERPRINT_OFFSET, fingerprint);
+		} else {
+			end = (int)Math.min(buffer.getLong(END_OFFSET), buffer.capacity());
+			replay();
+		}
+	}
+
+	private void map(long size) throws IOException {
+		MappedByteBuffer previous = buffer;
+		buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+		if (previous != null)
+			unmap(previous);
+	}
+
+	/**
+	 * releases the pages of a mapping right away rather than once it is garbage collected.
+	 * The buffer must not be used afterwards, so it is done only under the lock of the index.
+	 */
+	private static void unmap(MappedByteBuffer buffer) {
+		try {
+			try {
+				// Java 9 and later
+				Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+				Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+				theUnsafe.setAccessible(true);
+				Method invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+				invokeCleaner.invoke(theUnsafe.get(null), buffer);
+			} catch (NoSuchMethodException e) {
+				// Java 8
+				Method cleanerMethod = buffer.getClass().getMethod("cleaner");
+				cleanerMethod.setAccessible(true);
+				Object cleaner = cleanerMethod.invoke(buffer);
+				if (cleaner != null)
+					cleaner.getClass().getMethod("clean").invoke(cleaner);
+			}
+		} catch (ReflectiveOperationException | RuntimeException e) {
+			logger.debug("could not unmap the provenance index, its pages are released once it is garbage collected", e);
+		}
+	}
+
+	/**
+	 * rebuilds the in-memory offsets from the log, an incomplete record at the end is dropped
+	 */
+	private void replay() {
+		int offset = HEADER;
+		try {
+			while (offset < end) {
+				byte type = buffer.get(offset);
+				if (type == ENTRY) {
+					Triple triple = new Triple(buffer.getLong(offset + 1), buffer.getLong(offset + 9), buffer.getLong(offset + 17));
+					Integer previous = entries.put(triple, offset);
+					if (previous != null)
+						deadBytes += entrySize(previous);
+					else
+						addNodes(triple);
+					offset += entrySize(offset);
+				} else if (type == REMOVE) {
+					Triple triple = new Triple(buffer.getLong(offset + 1), buffer.getLong(offset + 9), buffer.getLong(offset + 17));
+					Integer removed = entries.remove(triple);
+					if (removed != null) {
+						deadBytes += entrySize(removed);
+						removeNodes(triple);
+					}
+					offset += 25;
+				} else if (type == RULE) {
+					int length = buffer.getShort(offset + 1);
+					byte[] name = new byte[length];
+					for (int i = 0; i < length; i++)
+						name[i] = buffer.get(offset + 3 + i);
+					String rule = new String(name, StandardCharsets.UTF_8);
+					fileRuleIds.put(rule, fileRules.size());
+					fileRules.add(rule);
+					offset += 3 + length;
+				} else {
+					break;
+				}
+			}
+		} catch (IndexOutOfBoundsException e) {
+			// the last record has not been written completely
+		}
+		if (offset != end) {
+			logger.warn("dropping the incomplete tail of the provenance index {} at {}", file, offset);
+			setEnd(Math.min(offset, end));
+		}
+		logger.debug("provenance index {} opened with {} entries", file, entries.size());
+	}
+
+	private int entrySize(int offset) {
+		int solutions = buffer.getInt(offset + 25);
+		int premises = buffer.getInt(offset + 29);
+		return 33 + solutions * 8 + premises * SolutionStore.WIDTH * 8;
+	}
+
+	private void setEnd(int end) {
+		changing();
+		this.end = end;
+		buffer.putLong(END_OFFSET, end);
+	}
+
+	private void setFingerprint(long fingerprint) {
+		if (fingerprint == this.fingerprint)
+			return;
+		changing();
+		this.fingerprint = fingerprint;
+		buffer.putLong(FINGERPRINT_OFFSET, fingerprint);
+	}
+
+	private void changing() {
+		if (!dirty) {
+			// a crash from now on leaves a file that may miss some of the records written
+			buffer.putInt(STATE_OFFSET, DIRTY);
+			buffer.force();
+			dirty = true;
+		}
+	}
+
+	private void addNodes(Triple triple) {
+		addNode(triple.subj, triple);
+		addNode(triple.pred, triple);
+		addNode(triple.obj, triple);
+	}
+
+	private void addNode(long node, Triple triple) {
+		HashSet<Triple> triples = byNode.get(node);
+		if (triples == null) {
+			triples = new HashSet<Triple>();
+			byNode.put(node, triples);
+		}
+		triples.add(triple);
+	}
+
+	private void removeNodes(Triple triple) {
+		removeNode(triple.subj, triple);
+		removeNode(triple.pred, triple);
+		removeNode(triple.obj, triple);
+	}
+
+	private void removeNode(long node, Triple triple) {
+		HashSet<Triple> triples = byNode.get(node);
+		if (triples != null && triples.remove(triple) && triples.isEmpty())
+			byNode.remove(node);
+	}
+
+	/**
+	 * makes sure there are that many bytes after the end of the valid data
+	 * @return false if the index can not grow any more
+	 */
+	private boolean reserve(long bytes) throws IOException {
+		long needed = end + bytes;
+		if (needed <= buffer.capacity())
+			return true;
+		if (needed > Integer.MAX_VALUE) {
+			if (!full)
+				logger.warn("the provenance index {} is full, the newly explained statements are not indexed", file);
+			full = true;
+			return false;
+		}
+		map(Math.min(Integer.MAX_VALUE, Math.max(needed, 2L * buffer.capacity())));
+		return true;
+	}
+
+	/**
+	 * @return the indexed solutions of the statement or null if it is not indexed
+	 */
+	synchronized SolutionStore get(long subj, long pred, long obj) {
+		if (channel == null)
+			return null;
+		Integer offset = entries.get(new Triple(subj, pred, obj));
+		return offset == null ? null : read(offset);
+	}
+
+	private SolutionStore read(int offset) {
+		int solutions = buffer.getInt(offset + 25);
+		int premiseCount = buffer.getInt(offset + 29);
+		SolutionStore store = new SolutionStore(solutions, premiseCount);
+		int solution = offset + 33;
+		int premise = solution + solutions * 8;
+		int start = 0;
+		for (int i = 0; i < solutions; i++, solution += 8) {
+			int premiseEnd = buffer.getInt(solution);
+			store.begin(rules.intern(fileRules.get(buffer.getInt(solution + 4))));
+			for (int p = start; p < premiseEnd; p++, premise += SolutionStore.WIDTH * 8) {
+				store.add(buffer.getLong(premise), buffer.getLong(premise + 8), buffer.getLong(premise + 16),
+						buffer.getLong(premise + 24), buffer.getLong(premise + 32));
+			}
+			store.commit();
+			start = premiseEnd;
+		}
+		store.seal();
+		return store;
+	}
+
+	/**
+	 * the generation to pass to {@link #put} once the solutions are computed
+	 */
+	synchronized long generation() {
+		return generation;
+	}
+
+	/**
+	 * stores the complete solutions of the statement unless the index has been invalidated since
+	 * the generation has been taken or a transaction is currently in progress
+	 */
+	synchronized void put(long subj, long pred, long obj, SolutionStore solutions, long generation) {
+		if (inTransaction || generation != this.generation || full || channel == null)
+			return;
+		Triple triple = new Triple(subj, pred, obj);
+		if (entries.containsKey(triple))
+			return;
+		try {
+			append(triple, solutions);
+		} catch (IOException e) {
+			logger.error("could not write to the provenance index " + file, e);
+		}
+	}
+
+	private void append(Triple triple, SolutionStore solutions) throws IOException {
+		int[] ruleIds = new int[solutions.size()];
+		for (int i = 0; i < solutions.size(); i++)
+			ruleIds[i] = fileRule(rules.name(solutions.rule(i)));
+		if (full || !reserve(33L + solutions.size() * 8L + (long)solutions.premiseCount() * SolutionStore.WIDTH * 8))
+			return;
+		int offset = end;
+		int at = offset;
+		buffer.put(at, ENTRY);
+		buffer.putLong(at + 1, triple.subj);
+		buffer.putLong(at + 9, triple.pred);
+		buffer.putLong(at + 17, triple.obj);
+		buffer.putInt(at + 25, solutions.size());
+		buffer.putInt(at + 29, solutions.premiseCount());
+		at += 33;
+		for (int i = 0; i < solutions.size(); i++, at += 8) {
+			buffer.putInt(at, solutions.end(i));
+			buffer.putInt(at + 4, ruleIds[i]);
+		}
+		for (int p = 0; p < solutions.premiseCount(); p++) {
+			for (int f = 0; f < SolutionStore.WIDTH; f++, at += 8)
+				buffer.putLong(at, solutions.get(p, f));
+		}
+		// the entry becomes valid once the end is moved after it
+		setEnd(at);
+		entries.put(triple, offset);
+		addNodes(triple);
+	}
+
+	/**
+	 * @return the id of the rule name in the file, appending a RULE record for a new one
+	 */
+	private int fileRule(String name) throws IOException {
+		Integer id = fileRuleIds.get(name);
+		if (id != null)
+			return id;
+		byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+		if (!reserve(3 + bytes.length))
+			return -1;
+		buffer.put(end, RULE);
+		buffer.putShort(end + 1, (short)bytes.length);
+		for (int i = 0; i < bytes.length; i++)
+			buffer.put(end + 3 + i, bytes[i]);
+		setEnd(end + 3 + bytes.length);
+		fileRuleIds.put(name, fileRules.size());
+		fileRules.add(name);
+		return fileRules.size() - 1;
+	}
+
+	synchronized void transactionStarted() {
+		inTransaction = true;
+	}
+
+	synchronized void statementAdded(long subj, long pred, long obj) {
+		track(pendingAdditions, subj, pred, obj);
+	}
+
+	synchronized void statementRemoved(long subj, long pred, long obj) {
+		track(pendingRemovals, subj, pred, obj);
+	}
+
+	/**
+	 * drops all entries once the transaction completes, for a change that may affect statements it shares no node with
+	 */
+	synchronized void invalidateAll() {
+		pendingClear = true;
+		pendingAdditions.clear();
+		pendingRemovals.clear();
+	}
+
+	private void track(HashSet<Triple> changes, long subj, long pred, long obj) {
+		if (pendingClear)
+			return;
+		if (pendingAdditions.size() + pendingRemovals.size() >= MAX_TRACKED_CHANGES) {
+			invalidateAll();
+			return;
+		}
+		changes.add(new Triple(subj, pred, obj));
+	}
+
+	/**
+	 * drops the entries affected by the changes of the completed transaction
+	 * @param fingerprint the fingerprint of the repository after the transaction
+	 */
+	synchronized void transactionCompleted(long fingerprint) {
+		if (channel == null)
+			return;
+		try {
+			if (pendingClear) {
+				clear();
+			} else if (!pendingAdditions.isEmpty() || !pendingRemovals.isEmpty()) {
+				HashSet<Triple> dropped = new HashSet<Triple>();
+				if (!pendingAdditions.isEmpty()) {
+					for (Triple added : pendingAdditions)
+						affected(added, dropped);
+					// the heads derived from premises they share no node with
+					HashSet<Triple> sameAsHeads = byNode.get(sameAs);
+					if (sameAsHeads != null) {
+						for (Triple triple : sameAsHeads) {
+							if (triple.pred == sameAs)
+								dropped.add(triple);
+						}
+					}
+				}
+				if (!pendingRemovals.isEmpty()) {
+					for (Map.Entry<Triple, Integer> entry : entries.entrySet()) {
+						if (!dropped.contains(entry.getKey()) && (pendingRemovals.contains(entry.getKey())
+								|| usesAny(entry.getValue(), pendingRemovals)))
+							dropped.add(entry.getKey());
+					}
+				}
+				remove(dropped);
+				if (deadBytes > MIN_MAPPED && deadBytes > end / 2)
+					compact();
+			}
+			setFingerprint(fingerprint);
+		} catch (IOException e) {
+			if (channel != null) {
+				logger.error("could not update the provenance index " + file + ", starting it over", e);
+				clear();
+				setFingerprint(fingerprint);
+			} else {
+				logger.error("could not update the provenance index " + file + ", the statements are explained on demand", e);
+			}
+		}
+		generation++;
+		resetPending();
+	}
+
+	/**
+	 * adds the entries of the statements that have a node of the added statement in any position
+	 */
+	private void affected(Triple added, HashSet<Triple> affected) {
+		addAll(affected, byNode.get(added.subj));
+		if (added.pred != added.subj)
+			addAll(affected, byNode.get(added.pred));
+		if (added.obj != added.subj && added.obj != added.pred)
+			addAll(affected, byNode.get(added.obj));
+	}
+
+	private static void addAll(HashSet<Triple> to, HashSet<Triple> triples) {
+		if (triples != null)
+			to.addAll(triples);
+	}
+
+	synchronized void transactionAborted() {
+		generation++;
+		resetPending();
+	}
+
+	private void resetPending() {
+		inTransaction = false;
+		pendingClear = false;
+		pendingAdditions = new HashSet<Triple>();
+		pendingRemovals = new HashSet<Triple>();
+	}
+
+	private void clear() {
+		entries.clear();
+		byNode.clear();
+		fileRules.clear();
+		fileRuleIds.clear();
+		deadBytes = 0;
+		full = false;
+		setEnd(HEADER);
+	}
+
+	private void remove(HashSet<Triple> dropped) throws IOException {
+		for (Triple triple : dropped) {
+			Integer offset = entries.remove(triple);
+			if (offset == null)
+				continue;
+			deadBytes += entrySize(offset);
+			removeNodes(triple);
+			if (!reserve(25)) {
+				// the removal can not be recorded, so do not leave an invalid entry behind
+				clear();
+				return;
+			}
+			buffer.put(end, REMOVE);
+			buffer.putLong(end + 1, triple.subj);
+			buffer.putLong(end + 9, triple.pred);
+			buffer.putLong(end + 17, triple.obj);
+			setEnd(end + 25);
+		}
+	}
+
+	private boolean usesAny(int offset, HashSet<Triple> keys) {
+		int solutions = buffer.getInt(offset + 25);
+		int premises = buffer.getInt(offset + 29);
+		int at = offset + 33 + solutions * 8;
+		for (int p = 0; p < premises; p++, at += SolutionStore.WIDTH * 8) {
+			if (keys.contains(new Triple(buffer.getLong(at), buffer.getLong(at + 8), buffer.getLong(at + 16))))
+				return true;
+		}
+		return false;
+	}
+
+	/**
+	 * rewrites the valid entries to a new file that replaces the current one.
+	 * If that fails the index goes on with the file that is left, or with none if it can not be opened.
+	 */
+	private void compact() throws IOException {
+		File tmp = new File(file.getPath() + ".tmp");
+		if (tmp.exists() && !tmp.delete())
+			throw new IOException("could not delete " + tmp);
+		ProvenanceIndex compacted = new ProvenanceIndex(tmp, rules, fingerprint, sameAs);
+		try {
+			for (Map.Entry<Triple, Integer> entry : entries.entrySet())
+				compacted.append(entry.getKey(), read(entry.getValue()));
+		} finally {
+			compacted.close();
+		}
+		close();
+		entries.clear();
+		byNode.clear();
+		fileRules.clear();
+		fileRuleIds.clear();
+		deadBytes = 0;
+		full = false;
+		try {
+			if (!file.delete() || !tmp.renameTo(file))
+				throw new IOException("could not replace " + file + " with " + tmp);
+		} finally {
+			// the compacted file, the current one if it has not been deleted, or a new one
+			open();
+		}
+	}
+
+	synchronized int size() {
+		return entries.size();
+	}
+
+	synchronized void close() {
+		if (channel == null)
+			return;
+		try {
+			if (dirty) {
+				// the records have to be on disk before the file is marked as clean
+				buffer.force();
+				buffer.putInt(STATE_OFFSET, CLEAN);
+				buffer.force();
+			}
+			channel.close();
+			raf.close();
+		} catch (IOException e) {
+			logger.warn("could not close the provenance index " + file, e);
+		}
+		unmap(buffer);
+		buffer = null;
+		channel = null;
+		raf = null;
+	}
+}
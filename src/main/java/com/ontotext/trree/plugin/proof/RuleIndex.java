@@ -0,0 +1,119 @@
+package com.ontotext.trree.plugin.proof;
+
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * Interns the rule names reported by the inferencer, so the solutions refer to their rule by a small int.
+ * The number of distinct names is bounded by the ruleset. Reading a name does not lock.
+ *
+ * It is also the catalog of the rules: the predicates of the statements each rule has derived and the numbers of
+ * premises of its solutions. The inferencer does not expose its compiled rules, so the catalog is filled in from
+ * the solutions it reports and tells what a rule is known to do rather than all it may do. Once a rule has been
+ * seen deriving a predicate recording it again does not lock.
+ */
+final class RuleIndex {
+	// the pseudo rule of the solution of an explicit statement
+	static final int EXPLICIT = 0;
+	static final String EXPLICIT_NAME = "explicit";
+	// the pseudo rule of the solution of a statement that exists through the owl:sameAs equivalence of its nodes
+	static final int SAME_AS = 1;
+	static final String SAME_AS_NAME = "sameAs";
+	// a rule with a variable predicate in its head may derive any predicate, so the ones recorded are bounded
+	static final int MAX_HEADS = 1000;
+
+	private static final class Rule {
+		final String name;
+		// the sorted predicates of the statements derived by the rule
+		volatile long[] heads = new long[0];
+		// the least and the most premises of its solutions, 0 until one is reported
+		volatile int minPremises = 0, maxPremises = 0;
+		Rule(String name) {
+			this.name = name;
+		}
+	}
+
+	private final HashMap<String, Integer> ids = new HashMap<String, Integer>();
+	private volatile Rule[] rules = new Rule[] {new Rule(EXPLICIT_NAME), new Rule(SAME_AS_NAME)};
+
+	RuleIndex() {
+		ids.put(EXPLICIT_NAME, EXPLICIT);
+		ids.put(SAME_AS_NAME, SAME_AS);
+	}
+
+	synchronized int intern(String name) {
+		Integer id = ids.get(name);
+		if (id == null) {
+			Rule[] extended = Arrays.copyOf(rules, rules.length + 1);
+			id = rules.length;
+			extended[id] = new Rule(name);
+			rules = extended;
+			ids.put(name, id);
+		}
+		return id;
+	}
+
+	/**
+	 * @return the id of the rule or -1 if it has not been reported yet
+	 */
+	synchronized int id(String name) {
+		Integer id = ids.get(name);
+		return id == null ? -1 : id;
+	}
+
+	String name(int id) {
+		return rules[id].name;
+	}
+
+	int size() {
+		return rules.length;
+	}
+
+	/**
+	 * records a solution of the rule with that many premises for a statement with the predicate
+	 */
+	void observed(int id, long pred, int premises) {
+		Rule rule = rules[id];
+		if (premises >= rule.minPremises && premises <= rule.maxPremises
+				&& (Arrays.binarySearch(rule.heads, pred) >= 0 || rule.heads.length >= MAX_HEADS))
+			return;
+		synchronized (this) {
+			if (rule.maxPremises == 0 || premises < rule.minPremises)
+				rule.minPremises = premises;
+			if (premises > rule.maxPremises)
+				rule.maxPremises = premises;
+			long[] heads = rule.heads;
+			int at = Arrays.binarySearch(heads, pred);
+			if (at < 0 && heads.length < MAX_HEADS) {
+				at = -at - 1;
+				long[] added = new long[heads.length + 1];
+				System.arraycopy(heads, 0, added, 0, at);
+				added[at] = pred;
+				System.arraycopy(heads, at, added, at + 1, heads.length - at);
+				rule.heads = added;
+			}
+		}
+	}
+
+	/**
+	 * @return true if the rule has been seen deriving a statement with the predicate
+	 */
+	boolean derives(int id, long pred) {
+		return Arrays.binarySearch(rules[id].heads, pred) >= 0;
+	}
+
+	/**
+	 * @return the sorted predicates of the statements the rule has derived, not to be changed
+	 */
+	long[] heads(int id) {
+		return rules[id].heads;
+	}
+
+	int minPremises(int id) {
+		return rules[id].minPremises;
+	}
+
+	int maxPremises(int id) {
+		return rules[id].maxPremises;
+	}
+}
@@ -0,0 +1,183 @@
+package com.ontotext.trree.plugin.proof;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import com.ontotext.trree.AbstractRepositoryConnection;
+import com.ontotext.trree.StatementIdIterator;
+
+/**
+ * The equivalence classes of the owl:sameAs statements, kept in a union-find together with the sameAs links
+ * between the members, so a statement that exists only through the equivalence of its nodes can be explained by
+ * an equivalent explicit statement and the chains of sameAs links that connect their nodes.
+ *
+ * The index is built from the repository on first use and is read only after that, so it may be shared by
+ * the requests until a transaction changes the sameAs statements.
+ */
+final class SameAsIndex {
+	// the fields of a link: the other node, 1 if the node is the subject of the statement, its context and status
+	private static final int OTHER = 0, FORWARD = 1, CONTEXT = 2, STATUS = 3, LINK_WIDTH = 4;
+
+	private static final class Node {
+		final long id;
+		Node parent = this;
+		int rank = 0;
+		long[] links = new long[LINK_WIDTH];
+		int linkCount = 0;
+		// the members of the class, set for the root only
+		long[] members;
+		int memberCount = 0;
+		Node(long id) {
+			this.id = id;
+		}
+	}
+
+	private final long sameAsId;
+	private final LongMap<Node> nodes = new LongMap<Node>();
+	private final ArrayList<Node> all = new ArrayList<Node>();
+
+	SameAsIndex(long sameAsId) {
+		this.sameAsId = sameAsId;
+	}
+
+	/**
+	 * reads the sameAs statements of the repository, the copies made by the sameAs optimisation of the repository
+	 * are skipped as they add nothing to the classes
+	 */
+	static SameAsIndex build(AbstractRepositoryConnection conn, long sameAsId, int mask) {
+		SameAsIndex index = new SameAsIndex(sameAsId);
+		try (StatementIdIterator iter = conn.getStatements(0, sameAsId, 0, mask)) {
+			for (; iter.hasNext(); iter.next()) {
+				if ((iter.status & StatementIdIterator.SKIP_ON_REINFER_STATEMENT_STATUS) != 0 || iter.subj == iter.obj)
+					continue;
+				index.link(iter.subj, iter.obj, iter.context, iter.status);
+			}
+		}
+		index.collectMembers();
+		return index;
+	}
+
+	void link(long subj, long obj, long context, long status) {
+		Node a = node(subj), b = node(obj);
+		addLink(a, obj, 1, context, status);
+		addLink(b, subj, 0, context, status);
+		Node rootA = find(a), rootB = find(b);
+		if (rootA == rootB)
+			return;
+		if (rootA.rank < rootB.rank) {
+			Node swap = rootA;
+			rootA = rootB;
+			rootB = swap;
+		}
+		rootB.parent = rootA;
+		if (rootA.rank == rootB.rank)
+			rootA.rank++;
+	}
+
+	private static void addLink(Node node, long other, long forward, long context, long status) {
+		int at = node.linkCount * LINK_WIDTH;
+		if (at + LINK_WIDTH > node.links.length)
+			node.links = Arrays.copyOf(node.links, node.links.length * 2);
+		node.links[at + OTHER] = other;
+		node.links[at + FORWARD] = forward;
+		node.links[at + CONTEXT] = context;
+		node.links[at + STATUS] = status;
+		node.linkCount++;
+	}
+
+	private Node node(long id) {
+		Node node = nodes.get(id);
+		if (node == null) {
+			node = new Node(id);
+			nodes.put(id, node);
+			all.add(node);
+		}
+		return node;
+	}
+
+	private static Node find(Node node) {
+		Node root = node;
+		while (root.parent != root)
+			root = root.parent;
+		// path compression
+		while (node.parent != root) {
+			Node next = node.parent;
+			node.parent = root;
+			node = next;
+		}
+		return root;
+	}
+
+	/**
+	 * fills in the members of each class once all links are known, the index is read only after that
+	 */
+	void collectMembers() {
+		for (Node node : all)
+			find(node).memberCount++;
+		for (Node node : all) {
+			Node root = find(node);
+			if (root.members == null)
+				root.members = new long[root.memberCount];
+			root.members[--root.memberCount] = node.id;
+		}
+	}
+
+	/**
+	 * @return the representative of the class of the entity, the entity itself if it has no equivalents
+	 */
+	long find(long id) {
+		Node node = nodes.get(id);
+		return node == null ? id : find(node).id;
+	}
+
+	/**
+	 * @return the entity and its equivalents
+	 */
+	long[] members(long id) {
+		Node node = nodes.get(id);
+		return node == null ? new long[] {id} : find(node).members;
+	}
+
+	boolean isEmpty() {
+		return all.isEmpty();
+	}
+
+	/**
+	 * adds the sameAs statements of the shortest chain of links between two equivalent entities to the solution
+	 * being added to the store, nothing if the entities are the same
+	 * @return false if the entities are not equivalent
+	 */
+	boolean chain(long from, long to, SolutionStore store) {
+		if (from == to)
+			return true;
+		Node start = nodes.get(from);
+		if (start == null || find(from) != find(to))
+			return false;
+		// breadth first search back from the target, so the chain is added in order from the source
+		LongMap<long[]> via = new LongMap<long[]>();
+		ArrayDeque<Node> queue = new ArrayDeque<Node>();
+		queue.add(nodes.get(to));
+		via.put(to, new long[0]);
+		while (!queue.isEmpty() && via.get(from) == null) {
+			Node node = queue.poll();
+			for (int at = 0; at < node.linkCount * LINK_WIDTH; at += LINK_WIDTH) {
+				long other = node.links[at + OTHER];
+				if (via.get(other) != null)
+					continue;
+				// the link as seen from the other node
+				via.put(other, new long[] {node.id, 1 - node.links[at + FORWARD], node.links[at + CONTEXT], node.links[at + STATUS]});
+				queue.add(nodes.get(other));
+			}
+		}
+		for (long id = from; id != to; ) {
+			long[] link = via.get(id);
+			if (link[FORWARD] == 1)
+				store.add(id, sameAsId, link[OTHER], link[CONTEXT], link[STATUS]);
+			else
+				store.add(link[OTHER], sameAsId, id, link[CONTEXT], link[STATUS]);
+			id = link[OTHER];
+		}
+		return true;
+	}
+}
@@ -0,0 +1,471 @@
+package com.ontotext.trree.plugin.proof;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * Append-only storage of the solutions of a statement in primitive arrays.
+ *
+ * The premises of all solutions are kept one after another in a single long[], {@link #WIDTH} values per premise:
+ * subject, predicate, object, context and status. Solution i owns the premises from start(i) to end(i) and
+ * refers to its rule through the {@link RuleIndex}. Reporting a solution allocates nothing once the arrays
+ * have grown enough, and reading them back is a walk over the arrays.
+ *
+ * Two solutions are the same if they come from the same rule and match the same premises in any order. To detect
+ * that without sorting the premises, each solution has an order independent hash (a sum of the premise hashes)
+ * and the solutions kept so far are indexed by it in an open addressing table.
+ *
+ * A store is filled by a single thread. Once {@link #seal()}-ed it does not change and may be shared.
+ * The explains collect into a per thread store that is {@link #reset()} and reused, and keep an exact {@link #copy()}
+ * of it, so the growth of the arrays is paid once per thread rather than once per explained statement.
+ * A request that holds on to more solutions than it may keep on the heap {@link #spill(File)}-s the store it collects
+ * into, so the premises are moved to a memory-mapped temporary file, where the store keeps growing and the iterators
+ * read them back from.
+ */
+final class SolutionStore {
+	static final int WIDTH = 5;
+	static final int SUBJ = 0, PRED = 1, OBJ = 2, CONTEXT = 3, STATUS = 4;
+
+	// premises, WIDTH values each, null if they have been spilled
+	private long[] premises;
+	// the premises of a spilled store
+	private LongBuffer spilled;
+	// the file of the premises of a spilled store that may still grow, closed once it is sealed
+	private FileChannel channel;
+	private int premiseCount = 0;
+	// starts[i] is the first premise of solution i, starts[size] is where the next solution starts
+	private int[] starts;
+	private int[] rules;
+	private int[] hashes;
+	private int size = 0;
+	// rule of the solution being added, -1 if there is none
+	private int pendingRule = -1;
+	// open addressing table of solution index + 1, null once sealed
+	private int[] table;
+	// set when the enumeration has been stopped by the budget of the request
+	private boolean partial = false;
+
+	SolutionStore() {
+		this(4, 8);
+	}
+
+	SolutionStore(int solutions, int premises) {
+		this.premises = new long[Math.max(1, premises) * WIDTH];
+		this.starts = new int[Math.max(1, solutions) + 1];
+		this.rules = new int[Math.max(1, solutions)];
+		this.hashes = new int[Math.max(1, solutions)];
+		this.table = new int[16];
+	}
+
+	/**
+	 * @return a sealed store with the single solution of an explicit statement, which is its own premise
+	 */
+	static SolutionStore explicit(long subj, long pred, long obj, long context) {
+		SolutionStore store = new SolutionStore(1, 1);
+		store.begin(RuleIndex.EXPLICIT);
+		store.add(subj, pred, obj, context, 0);
+		store.commit();
+		store.seal();
+		return store;
+	}
+
+	/**
+	 * starts a new solution, its premises are added through {@link #add} and it is finished by
+	 * {@link #commit()} or dropped by {@link #rollback()}
+	 */
+	void begin(int rule) {
+		pendingRule = rule;
+		premiseCount = starts[size];
+	}
+
+	void add(long subj, long pred, long obj, long context, long status) {
+		int at = premiseCount * WIDTH;
+		if (at + WIDTH > length())
+			grow(at + WIDTH);
+		put(at + SUBJ, subj);
+		put(at + PRED, pred);
+		put(at + OBJ, obj);
+		put(at + CONTEXT, context);
+		put(at + STATUS, status);
+		premiseCount++;
+	}
+
+	private void grow(int needed) {
+		int length = Math.max(length() * 2, needed);
+		if (premises != null) {
+			premises = Arrays.copyOf(premises, length);
+			return;
+		}
+		if ((long)length * 8 <= Integer.MAX_VALUE) {
+			try {
+				// the file grows under the larger mapping, so the premises written so far stay where they are
+				spilled = channel.map(FileChannel.MapMode.READ_WRITE, 0, (long)length * 8).asLongBuffer();
+				return;
+			} catch (IOException e) {
+				// the disk is full, the premises go back to the heap
+			}
+		}
+		long[] heap = new long[length];
+		read(heap, premiseCount * WIDTH);
+		spilled = null;
+		premises = heap;
+		closeChannel();
+	}
+
+	void commit() {
+		if (size + 1 >= starts.length) {
+			int capacity = starts.length * 2;
+			starts = Arrays.copyOf(starts, capacity + 1);
+			rules = Arrays.copyOf(rules, capacity);
+			hashes = Arrays.copyOf(hashes, capacity);
+		}
+		rules[size] = pendingRule;
+		size++;
+		starts[size] = premiseCount;
+		pendingRule = -1;
+	}
+
+	void rollback() {
+		premiseCount = starts[size];
+		pendingRule = -1;
+	}
+
+	/**
+	 * keeps solution i at position kept unless it is the same as one of the solutions before kept.
+	 * The solutions between kept and i are expected to be already dropped, so the store is compacted as it goes.
+	 * @return true if the solution has been kept
+	 */
+	boolean keepDistinct(int i, int kept) {
+		int hash = hash(i);
+		int mask = table.length - 1;
+		int slot = hash & mask;
+		while (table[slot] != 0) {
+			int other = table[slot] - 1;
+			if (hashes[other] == hash && same(other, i))
+				return false;
+			slot = (slot + 1) & mask;
+		}
+		if (i != kept)
+			move(i, kept);
+		hashes[kept] = hash;
+		table[slot] = kept + 1;
+		if ((kept + 1) * 2 > table.length)
+			rehash(kept + 1);
+		return true;
+	}
+
+	/**
+	 * drops the solutions from the given one on
+	 */
+	void truncate(int solutions) {
+		if (solutions < size) {
+			size = solutions;
+			premiseCount = starts[size];
+		}
+	}
+
+	/**
+	 * drops all solutions, keeping the arrays for the next ones
+	 */
+	void reset() {
+		if (premises == null) {
+			// a spilled store goes back to the heap
+			premises = new long[8 * WIDTH];
+			spilled = null;
+			closeChannel();
+		}
+		size = 0;
+		premiseCount = 0;
+		pendingRule = -1;
+		partial = false;
+		Arrays.fill(table, 0);
+	}
+
+	/**
+	 * @return a sealed copy of the store with arrays of the exact size
+	 */
+	SolutionStore copy() {
+		SolutionStore copy = new SolutionStore(this);
+		copy.seal();
+		return copy;
+	}
+
+	/**
+	 * @return a sealed store with just one of the solutions of this one
+	 */
+	SolutionStore solution(int solution) {
+		SolutionStore single = new SolutionStore(1, end(solution) - start(solution));
+		single.append(this, solution);
+		single.seal();
+		return single;
+	}
+
+	/**
+	 * adds a solution of another store as it is
+	 */
+	void append(SolutionStore other, int solution) {
+		begin(other.rules[solution]);
+		for (int p = other.start(solution); p < other.end(solution); p++)
+			add(other.get(p, SUBJ), other.get(p, PRED), other.get(p, OBJ), other.get(p, CONTEXT), other.get(p, STATUS));
+		commit();
+	}
+
+	/**
+	 * @return true if the triple is one of the premises of the solution
+	 */
+	boolean uses(int solution, long subj, long pred, long obj) {
+		for (int p = start(solution); p < end(solution); p++) {
+			if (get(p, SUBJ) == subj && get(p, PRED) == pred && get(p, OBJ) == obj)
+				return true;
+		}
+		return false;
+	}
+
+	private SolutionStore(SolutionStore other) {
+		premises = new long[Math.max(1, other.premiseCount) * WIDTH];
+		other.read(premises, other.premiseCount * WIDTH);
+		premiseCount = other.premiseCount;
+		starts = Arrays.copyOf(other.starts, other.size + 1);
+		rules = Arrays.copyOf(other.rules, Math.max(1, other.size));
+		hashes = Arrays.copyOf(other.hashes, Math.max(1, other.size));
+		size = other.size;
+		partial = other.partial;
+	}
+
+	/**
+	 * moves the premises to a memory-mapped temporary file in the directory, so they take no heap. The store may
+	 * still grow, into a larger mapping of the same file. The file is deleted right away where the system allows that
+	 * while it is open, the mapping is released once the store is garbage collected.
+	 */
+	void spill(File dir) throws IOException {
+		if (premises == null)
+			return;
+		long bytes = (long)premises.length * 8;
+		if (bytes > Integer.MAX_VALUE)
+			throw new IOException("too many premises to map: " + premiseCount);
+		File file = File.createTempFile("proof", ".spill", dir);
+		FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE);
+		try {
+			LongBuffer mapped = channel.map(FileChannel.MapMode.READ_WRITE, 0, bytes).asLongBuffer();
+			mapped.put(premises, 0, premiseCount * WIDTH);
+			spilled = mapped;
+			premises = null;
+			// a sealed store does not grow, so it does not need the file any more
+			if (table != null) {
+				this.channel = channel;
+				channel = null;
+			}
+		} finally {
+			if (channel != null)
+				channel.close();
+			if (!file.delete())
+				file.deleteOnExit();
+		}
+	}
+
+	private void closeChannel() {
+		if (channel == null)
+			return;
+		try {
+			channel.close();
+		} catch (IOException e) {
+			// the mapping stays valid without it
+		}
+		channel = null;
+	}
+
+	boolean isSpilled() {
+		return premises == null;
+	}
+
+	/**
+	 * @return the approximate size of a sealed copy of the store, on the heap or off it
+	 */
+	long bytes() {
+		return (long)premiseCount * WIDTH * 8 + (long)size * 12;
+	}
+
+	/**
+	 * @return the approximate heap size of a sealed copy of the store, without the premises of a spilled one
+	 */
+	long heapBytes() {
+		return (premises != null ? (long)premiseCount * WIDTH * 8 : 0) + (long)size * 12;
+	}
+
+	/**
+	 * @return the number of premises the store can take without growing
+	 */
+	int capacity() {
+		return length() / WIDTH;
+	}
+
+	private int length() {
+		return premises != null ? premises.length : spilled.capacity();
+	}
+
+	/**
+	 * releases the index used to detect duplicates and the spare capacity, the store is read only after that
+	 */
+	void seal() {
+		table = null;
+		closeChannel();
+		if (premises != null && premises.length > premiseCount * WIDTH)
+			premises = Arrays.copyOf(premises, Math.max(1, premiseCount) * WIDTH);
+		if (starts.length > size + 1) {
+			starts = Arrays.copyOf(starts, size + 1);
+			rules = Arrays.copyOf(rules, Math.max(1, size));
+			hashes = Arrays.copyOf(hashes, Math.max(1, size));
+		}
+	}
+
+	int size() {
+		return size;
+	}
+
+	void markPartial() {
+		partial = true;
+	}
+
+	/**
+	 * @return true if the statement may have more solutions than the ones in the store
+	 */
+	boolean isPartial() {
+		return partial;
+	}
+
+	int premiseCount() {
+		return premiseCount;
+	}
+
+	int start(int solution) {
+		return starts[solution];
+	}
+
+	int end(int solution) {
+		return starts[solution + 1];
+	}
+
+	int rule(int solution) {
+		return rules[solution];
+	}
+
+	long get(int premise, int field) {
+		return value(premise * WIDTH + field);
+	}
+
+	void set(int premise, int field, long value) {
+		put(premise * WIDTH + field, value);
+	}
+
+	private long value(int at) {
+		long[] premises = this.premises;
+		return premises != null ? premises[at] : spilled.get(at);
+	}
+
+	private void put(int at, long value) {
+		long[] premises = this.premises;
+		if (premises != null)
+			premises[at] = value;
+		else
+			spilled.put(at, value);
+	}
+
+	/**
+	 * copies the first values of the premises into the array
+	 */
+	private void read(long[] into, int length) {
+		if (premises != null) {
+			System.arraycopy(premises, 0, into, 0, length);
+		} else {
+			LongBuffer from = spilled.duplicate();
+			from.position(0);
+			from.get(into, 0, length);
+		}
+	}
+
+	private int hash(int i) {
+		int sum = 0;
+		for (int p = starts[i] * WIDTH, end = starts[i + 1] * WIDTH; p < end; p += WIDTH) {
+			int h = 1;
+			for (int f = 0; f < WIDTH; f++) {
+				long v = value(p + f);
+				h = 31 * h + (int)(v ^ (v >>> 32));
+			}
+			sum += h;
+		}
+		return 31 * rules[i] + sum;
+	}
+
+	/**
+	 * compares the premises of two solutions as multisets
+	 */
+	private boolean same(int a, int b) {
+		if (rules[a] != rules[b] || end(a) - start(a) != end(b) - start(b))
+			return false;
+		for (int p = start(a); p < end(a); p++) {
+			if (count(p, a) != count(p, b))
+				return false;
+		}
+		return true;
+	}
+
+	private int count(int premise, int solution) {
+		int count = 0;
+		for (int p = start(solution); p < end(solution); p++) {
+			if (samePremise(premise, p))
+				count++;
+		}
+		return count;
+	}
+
+	private boolean samePremise(int a, int b) {
+		int x = a * WIDTH, y = b * WIDTH;
+		for (int f = 0; f < WIDTH; f++) {
+			if (value(x + f) != value(y + f))
+				return false;
+		}
+		return true;
+	}
+
+	private void move(int from, int to) {
+		int length = (end(from) - start(from)) * WIDTH;
+		if (premises != null) {
+			System.arraycopy(premises, start(from) * WIDTH, premises, start(to) * WIDTH, length);
+		} else {
+			// the solution moves towards the start, so the values are copied from the first one on
+			for (int i = 0, source = start(from) * WIDTH, target = start(to) * WIDTH; i < length; i++)
+				spilled.put(target + i, spilled.get(source + i));
+		}
+		rules[to] = rules[from];
+		starts[to + 1] = starts[to] + length / WIDTH;
+	}
+
+	private void rehash(int count) {
+		int[] bigger = new int[table.length * 2];
+		int mask = bigger.length - 1;
+		for (int i = 0; i < count; i++) {
+			int slot = hashes[i] & mask;
+			while (bigger[slot] != 0)
+				slot = (slot + 1) & mask;
+			bigger[slot] = i + 1;
+		}
+		table = bigger;
+	}
+
+	/**
+	 * @return the premises of a solution for logging
+	 */
+	String toString(int solution) {
+		StringBuilder builder = new StringBuilder();
+		builder.append("rule:").append(rules[solution]).append("\n");
+		for (int p = start(solution); p < end(solution); p++) {
+			builder.append(get(p, SUBJ)).append(",").append(get(p, PRED)).append(",");
+			builder.append(get(p, OBJ)).append(",").append(get(p, CONTEXT)).append("\n");
+		}
+		return builder.toString();
+	}
+}
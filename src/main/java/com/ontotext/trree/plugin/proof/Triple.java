@@ -0,0 +1,47 @@
+package com.ontotext.trree.plugin.proof;
+
+/**
+ * (subject, predicate, object) entity ids used as a hash key
+ */
+final class Triple implements Comparable<Triple> {
+	final long subj, pred, obj;
+
+	Triple(long subj, long pred, long obj) {
+		this.subj = subj;
+		this.pred = pred;
+		this.obj = obj;
+	}
+
+	@Override
+	public int hashCode() {
+		long h = subj * 31 + pred;
+		h = h * 31 + obj;
+		return (int)(h ^ (h >>> 32));
+	}
+
+	@Override
+	public boolean equals(Object oObj) {
+		if (!(oObj instanceof Triple))
+			return false;
+		Triple other = (Triple)oObj;
+		return other.subj == subj && other.pred == pred && other.obj == obj;
+	}
+
+	/**
+	 * orders by subject, predicate and object so lookups of sorted triples follow the index order
+	 */
+	@Override
+	public int compareTo(Triple other) {
+		int c = Long.compare(subj, other.subj);
+		if (c == 0)
+			c = Long.compare(pred, other.pred);
+		if (c == 0)
+			c = Long.compare(obj, other.obj);
+		return c;
+	}
+
+	@Override
+	public String toString() {
+		return subj + "," + pred + "," + obj;
+	}
+}
@@ -0,0 +1,126 @@
+package com.ontotext.trree.plugin.proof;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.eclipse.rdf4j.model.IRI;
+import org.eclipse.rdf4j.model.ValueFactory;
+import org.eclipse.rdf4j.model.vocabulary.OWL;
+import org.eclipse.rdf4j.model.vocabulary.RDF;
+import org.eclipse.rdf4j.model.vocabulary.RDFS;
+import org.eclipse.rdf4j.repository.RepositoryConnection;
+
+/**
+ * Generates data that makes the inferencer work: a deep class hierarchy with instances at the bottom,
+ * chains of a transitive property with an inverse and cliques of owl:sameAs individuals.
+ * The sizes are set through system properties with the {@link #PREFIX} prefix, the defaults are small enough
+ * for a regular build, e.g. -Dgraphdb.proof.scale.instances=1000000 generates a repository of a few million statements.
+ *
+ * Besides loading the data it returns the inferred statements that are worth explaining, the probes.
+ */
+class SyntheticOntology {
+	static final String PREFIX = "graphdb.proof.scale.";
+	static final String NS = "urn:synthetic:";
+
+	// the number of classes in the subclass chain
+	int depth = Integer.getInteger(PREFIX + "depth", 10);
+	// the number of instances of the most specific class
+	int instances = Integer.getInteger(PREFIX + "instances", 100);
+	// the number and length of the chains of the transitive property
+	int chains = Integer.getInteger(PREFIX + "chains", 10);
+	int chainLength = Integer.getInteger(PREFIX + "chainLength", 10);
+	// the number and size of the sameAs cliques
+	int cliques = Integer.getInteger(PREFIX + "cliques", 10);
+	int cliqueSize = Integer.getInteger(PREFIX + "cliqueSize", 5);
+
+	// statements added per transaction
+	private static final int BATCH = 10000;
+
+	private RepositoryConnection conn;
+	private int pending = 0;
+	private long added = 0;
+
+	/**
+	 * loads the data, each probe is a subject, predicate and object of an inferred statement
+	 */
+	List<IRI[]> load(RepositoryConnection conn) {
+		this.conn = conn;
+		ValueFactory vf = conn.getValueFactory();
+		ArrayList<IRI[]> probes = new ArrayList<IRI[]>();
+		conn.begin();
+
+		IRI[] classes = new IRI[depth];
+		for (int i = 0; i < depth; i++) {
+			classes[i] = vf.createIRI(NS + "Class" + i);
+			if (i > 0)
+				add(classes[i - 1], RDFS.SUBCLASSOF, classes[i]);
+		}
+		for (int i = 0; i < instances; i++) {
+			IRI instance = vf.createIRI(NS + "instance" + i);
+			add(instance, RDF.TYPE, classes[0]);
+			// a few of them are enough to probe, all of them make the repository big
+			if (i < 10 && depth > 1)
+				probes.add(new IRI[] {instance, RDF.TYPE, classes[depth - 1]});
+		}
+		if (depth > 2)
+			probes.add(new IRI[] {classes[0], RDFS.SUBCLASSOF, classes[depth - 1]});
+
+		IRI partOf = vf.createIRI(NS + "partOf");
+		IRI hasPart = vf.createIRI(NS + "hasPart");
+		add(partOf, RDF.TYPE, OWL.TRANSITIVEPROPERTY);
+		add(hasPart, OWL.INVERSEOF, partOf);
+		for (int c = 0; c < chains; c++) {
+			IRI first = vf.createIRI(NS + "chain" + c + "/0");
+			IRI previous = first;
+			for (int i = 1; i <= chainLength; i++) {
+				IRI next = vf.createIRI(NS + "chain" + c + "/" + i);
+				add(previous, partOf, next);
+				previous = next;
+			}
+			if (chainLength > 1)
+				probes.add(new IRI[] {first, partOf, previous});
+			probes.add(new IRI[] {previous, hasPart, first});
+		}
+
+		IRI knows = vf.createIRI(NS + "knows");
+		for (int c = 0; c < cliques; c++) {
+			IRI first = vf.createIRI(NS + "clique" + c + "/0");
+			IRI previous = first;
+			for (int i = 1; i < cliqueSize; i++) {
+				IRI next = vf.createIRI(NS + "clique" + c + "/" + i);
+				add(previous, OWL.SAMEAS, next);
+				previous = next;
+			}
+			add(first, knows, vf.createIRI(NS + "friend" + c));
+			if (cliqueSize > 1)
+				probes.add(new IRI[] {previous, knows, vf.createIRI(NS + "friend" + c)});
+		}
+
+		conn.commit();
+		this.conn = null;
+		return probes;
+	}
+
+	private void add(IRI subj, IRI pred, IRI obj) {
+		conn.add(subj, pred, obj);
+		added++;
+		if (++pending >= BATCH) {
+			conn.commit();
+			conn.begin();
+			pending = 0;
+		}
+	}
+
+	/**
+	 * @return the number of explicit statements loaded
+	 */
+	long size() {
+		return added;
+	}
+
+	@Override
+	public String toString() {
+		return "depth=" + depth + " instances=" + instances + " chains=" + chains + "x" + chainLength
+				+ " cliques=" + cliques + "x" + cliqueSize;
+	}
+}
@@ -0,0 +1,28 @@
+package com.ontotext.trree.plugin.proof;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+public class TestCardinalityStats {
+	@Test
+	public void testDefaults() {
+		CardinalityStats stats = new CardinalityStats();
+		assertEquals(CardinalityStats.DEFAULT_ROWS, stats.rows(1), 0);
+		assertEquals(CardinalityStats.DEFAULT_ROWS_PER_SOLUTION, stats.rowsPerSolution(1), 0);
+	}
+
+	@Test
+	public void testAveragesByPredicate() {
+		CardinalityStats stats = new CardinalityStats();
+		stats.explained(1, 2, 4);
+		stats.explained(1, 4, 8);
+		stats.explained(2, 100, 300);
+		assertEquals(6, stats.rows(1), 0);
+		assertEquals(2, stats.rowsPerSolution(1), 0);
+		assertEquals(300, stats.rows(2), 0);
+		assertEquals(3, stats.rowsPerSolution(2), 0);
+		// a predicate not explained yet gets the average of all statements
+		assertEquals(104, stats.rows(3), 0);
+	}
+}
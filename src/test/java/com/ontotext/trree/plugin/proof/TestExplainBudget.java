@@ -0,0 +1,48 @@
+package com.ontotext.trree.plugin.proof;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class TestExplainBudget {
+	/**
+	 * the memory limit applies to what is held at a time, so the solutions let go make room for the next ones
+	 */
+	@Test
+	public void testMemoryIsWhatIsHeld() {
+		ExplainBudget budget = new ExplainBudget(0, 0, 1);
+		long half = 1 << 19;
+		for (int i = 0; i < 10; i++) {
+			assertTrue(budget.charge(1, half - 1));
+			budget.hold(half - 1);
+			assertEquals(half - 1, budget.held());
+			budget.release(half - 1);
+		}
+		assertEquals(0, budget.held());
+		assertFalse(budget.isExhausted());
+
+		budget.hold(half);
+		assertFalse("collecting as much as is held", budget.charge(1, half));
+		assertTrue(budget.isExhausted());
+	}
+
+	@Test
+	public void testMatches() {
+		ExplainBudget budget = new ExplainBudget(0, 3, 0);
+		assertTrue(budget.charge(1, Long.MAX_VALUE / 2));
+		assertTrue(budget.charge(1, 0));
+		assertFalse(budget.charge(1, 0));
+	}
+
+	@Test
+	public void testLowered() {
+		ExplainBudget budget = new ExplainBudget(0, 10, 0);
+		assertTrue(budget.set(ExplainBudget.MATCHES, 2));
+		assertTrue(budget.set(ExplainBudget.MATCHES, 5));
+		assertFalse(budget.set("other", 5));
+		assertTrue(budget.charge(1, 0));
+		assertFalse("the lower limit stays", budget.charge(1, 0));
+	}
+}
@@ -0,0 +1,208 @@
+package com.ontotext.trree.plugin.proof;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.rdf4j.model.IRI;
+import org.eclipse.rdf4j.query.TupleQuery;
+import org.eclipse.rdf4j.query.TupleQueryResult;
+import org.eclipse.rdf4j.repository.RepositoryConnection;
+import org.eclipse.rdf4j.repository.sail.SailRepository;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.ClassRule;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.ontotext.graphdb.Config;
+import com.ontotext.test.TemporaryLocalFolder;
+
+/**
+ * Explains the probes of a {@link SyntheticOntology} from many connections at once and checks that each query
+ * returns the same rows as when run alone, then reports the latency percentiles and the throughput.
+ *
+ * The repository has the cache disabled, so every query goes through the inferencer and the shared state of the
+ * plugin, and explains the statements of pr:explainAll on a thread pool. The scale, the load and the limits are set
+ * through system properties with the {@link SyntheticOntology#PREFIX} prefix: threads, queries, parallelism,
+ * maxP99Millis and minQueriesPerSecond, e.g.
+ * mvn test -Dtest=TestExplainScale -Dgraphdb.proof.scale.instances=1000000 -Dgraphdb.proof.scale.threads=32
+ * The default limits are meant for the small scale the test runs at with the other tests, a larger run should set
+ * them for the machine it runs on, 0 turns a check off.
+ */
+public class TestExplainScale {
+	@ClassRule
+	public static TemporaryLocalFolder tmpFolder = new TemporaryLocalFolder();
+
+	private static final Logger logger = LoggerFactory.getLogger(TestExplainScale.class);
+
+	// the default limits, loose enough for the small scale on a slow machine but not for an explain gone quadratic
+	private static final long MAX_P99_MILLIS = 2000;
+	private static final long MIN_QUERIES_PER_SECOND = 20;
+
+	// the explain pattern of each query and what follows the where clause
+	private static final String[][] PATTERNS = {
+			{"?ctx pr:explain (?s ?p ?o)", ""},
+			{"?ctx pr:explainFirst (?s ?p ?o)", ""},
+			{"?ctx pr:explainTree (?s ?p ?o 3)", ""},
+			{"?ctx pr:shortestProof (?s ?p ?o)", ""},
+			// the first rows of the whole graph, so the iterator is closed while statements are explained ahead
+			{"?ctx pr:explainAll onto:implicit", " limit 200"},
+	};
+
+	@BeforeClass
+	public static void setWorkDir() {
+		System.setProperty("graphdb.home.work", String.valueOf(tmpFolder.getRoot()));
+		Config.reset();
+	}
+
+	@AfterClass
+	public static void resetWorkDir() {
+		System.clearProperty("graphdb.home.work");
+		Config.reset();
+	}
+
+	@Test
+	public void testConcurrentExplain() throws Exception {
+		final int threads = Integer.getInteger(SyntheticOntology.PREFIX + "threads", 4);
+		final int queries = Integer.getInteger(SyntheticOntology.PREFIX + "queries", 400);
+		String parallelism = System.getProperty(SyntheticOntology.PREFIX + "parallelism", "2");
+		long maxP99Millis = Long.getLong(SyntheticOntology.PREFIX + "maxP99Millis", MAX_P99_MILLIS);
+		long minQueriesPerSecond = Long.getLong(SyntheticOntology.PREFIX + "minQueriesPerSecond", MIN_QUERIES_PER_SECOND);
+
+		// the plugin reads them once it is initialized
+		System.setProperty(ProofCache.SIZE_PROPERTY, "0");
+		System.setProperty(ProofPlugin.PARALLELISM_PROPERTY, parallelism);
+		final SailRepository rep;
+		try {
+			rep = TestExplainWithProofPlugin.createRepository(tmpFolder.newFolder("proof-plugin-scale"), "owl-horst-optimized");
+		} finally {
+			System.clearProperty(ProofCache.SIZE_PROPERTY);
+			System.clearProperty(ProofPlugin.PARALLELISM_PROPERTY);
+		}
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		try {
+			SyntheticOntology ontology = new SyntheticOntology();
+			final List<IRI[]> probes;
+			final int[][] expected;
+			RepositoryConnection conn = rep.getConnection();
+			try {
+				long start = System.nanoTime();
+				probes = ontology.load(conn);
+				logger.info("loaded {} statements ({}) in {} ms", ontology.size(), ontology,
+						TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+				// the rows of each probe and pattern when explained alone
+				expected = new int[probes.size()][PATTERNS.length];
+				for (int i = 0; i < probes.size(); i++) {
+					for (int p = 0; p < PATTERNS.length; p++) {
+						expected[i][p] = countRows(conn, PATTERNS[p], probes.get(i));
+						if (p == 0)
+							assertTrue("expected " + Arrays.toString(probes.get(i)) + " to be explained", expected[i][p] > 0);
+					}
+				}
+			} finally {
+				conn.close();
+			}
+
+			ArrayList<Future<long[]>> results = new ArrayList<Future<long[]>>();
+			long start = System.nanoTime();
+			for (int t = 0; t < threads; t++) {
+				final int thread = t;
+				results.add(executor.submit(new Callable<long[]>() {
+					@Override
+					public long[] call() throws IOException {
+						Random random = new Random(thread);
+						int count = queries / threads + (thread < queries % threads ? 1 : 0);
+						long[] latencies = new long[count];
+						RepositoryConnection conn = rep.getConnection();
+						try {
+							for (int q = 0; q < count; q++) {
+								int probe = random.nextInt(probes.size());
+								int pattern = random.nextInt(PATTERNS.length);
+								long queryStart = System.nanoTime();
+								int rows = countRows(conn, PATTERNS[pattern], probes.get(probe));
+								latencies[q] = System.nanoTime() - queryStart;
+								assertEquals(PATTERNS[pattern][0] + " of " + Arrays.toString(probes.get(probe)),
+										expected[probe][pattern], rows);
+							}
+						} finally {
+							conn.close();
+						}
+						return latencies;
+					}
+				}));
+			}
+			long[] latencies = new long[0];
+			for (Future<long[]> result : results) {
+				long[] thread = result.get();
+				int from = latencies.length;
+				latencies = Arrays.copyOf(latencies, from + thread.length);
+				System.arraycopy(thread, 0, latencies, from, thread.length);
+			}
+			long elapsed = System.nanoTime() - start;
+
+			Arrays.sort(latencies);
+			double p50 = millis(percentile(latencies, 50));
+			double p99 = millis(percentile(latencies, 99));
+			double perSecond = latencies.length / (elapsed / 1e9);
+			logger.info(String.format("%d queries on %d threads: p50 %.2f ms, p99 %.2f ms, %.1f queries/s",
+					latencies.length, threads, p50, p99, perSecond));
+			if (maxP99Millis > 0)
+				assertTrue("p99 latency " + p99 + " ms is above " + maxP99Millis + " ms", p99 <= maxP99Millis);
+			if (minQueriesPerSecond > 0)
+				assertTrue("throughput " + perSecond + " queries/s is below " + minQueriesPerSecond, perSecond >= minQueriesPerSecond);
+		} finally {
+			executor.shutdownNow();
+			rep.shutDown();
+		}
+	}
+
+	private static long percentile(long[] sorted, int percent) {
+		if (sorted.length == 0)
+			return 0;
+		int index = (int)Math.ceil(percent / 100.0 * sorted.length) - 1;
+		return sorted[Math.max(0, Math.min(sorted.length - 1, index))];
+	}
+
+	private static double millis(long nanos) {
+		return nanos / 1e6;
+	}
+
+	private static int countRows(RepositoryConnection conn, String[] pattern, IRI[] probe) {
+		TupleQuery query = conn.prepareTupleQuery("PREFIX pr: <http://www.ontotext.com/proof/>\n" +
+				"PREFIX onto: <http://www.ontotext.com/>\n" +
+				"select ?rule ?subj ?pred ?obj ?context {\n" +
+				"     " + pattern[0] + " .\n" +
+				"     ?ctx pr:rule ?rule .\n" +
+				"     ?ctx pr:subject ?subj .\n" +
+				"     ?ctx pr:predicate ?pred .\n" +
+				"     ?ctx pr:object ?obj .\n" +
+				"     ?ctx pr:context ?context .\n" +
+				"}" + pattern[1]);
+		query.setBinding("s", probe[0]);
+		query.setBinding("p", probe[1]);
+		query.setBinding("o", probe[2]);
+		int count = 0;
+		TupleQueryResult res = query.evaluate();
+		try {
+			while (res.hasNext()) {
+				res.next();
+				count++;
+			}
+		} finally {
+			res.close();
+		}
+		return count;
+	}
+}
@@ -2,21 +2,33 @@ package com.ontotext.trree.plugin.proof;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Map;
 
 import com.ontotext.graphdb.Config;
+import org.eclipse.rdf4j.model.IRI;
+import org.eclipse.rdf4j.model.Literal;
 import org.eclipse.rdf4j.model.Value;
+import org.eclipse.rdf4j.model.ValueFactory;
 import org.eclipse.rdf4j.model.vocabulary.OWL;
+import org.eclipse.rdf4j.model.vocabulary.RDF;
 import org.eclipse.rdf4j.model.vocabulary.RDFS;
 import org.eclipse.rdf4j.query.Binding;
 import org.eclipse.rdf4j.query.BindingSet;
 import org.eclipse.rdf4j.query.MalformedQueryException;
 import org.eclipse.rdf4j.query.QueryEvaluationException;
+import org.eclipse.rdf4j.query.TupleQuery;
 import org.eclipse.rdf4j.query.TupleQueryResult;
 import org.eclipse.rdf4j.repository.RepositoryConnection;
 import org.eclipse.rdf4j.repository.RepositoryException;
@@ -65,6 +77,64 @@ public class TestExplainWithProofPlugin {
 		Config.reset();
 	}
 
+	// the repositories started by the current test, shut down once it is done
+	private final ArrayList<SailRepository> repositories = new ArrayList<SailRepository>();
+	private final ArrayList<RepositoryConnection> connections = new ArrayList<RepositoryConnection>();
+
+	@After
+	public void shutDown() {
+		for (RepositoryConnection conn : connections)
+			conn.close();
+		for (SailRepository rep : repositories)
+			rep.shutDown();
+	}
+
+	/**
+	 * @return a started repository with the proof plugin, in the given data directory
+	 */
+	SailRepository newRepository(File dataDir) {
+		return newRepository(dataDir, null);
+	}
+
+	/**
+	 * @return a started repository with the proof plugin and the ruleset, the default one if null
+	 */
+	SailRepository newRepository(File dataDir, String ruleset) {
+		SailRepository rep = createRepository(dataDir, ruleset);
+		repositories.add(rep);
+		return rep;
+	}
+
+	/**
+	 * @return a started repository with the proof plugin and the ruleset, the default one if null, to be shut down
+	 * by the caller
+	 */
+	static SailRepository createRepository(File dataDir, String ruleset) {
+		Map<String, String> params = new HashMap<String, String>();
+		OwlimSchemaRepository sail = new OwlimSchemaRepository();
+		params.put("register-plugins", ProofPlugin.class.getName());
+		if (ruleset != null)
+			params.put("ruleset", ruleset);
+		sail.setParameters(params);
+		SailRepository rep = new SailRepository(sail);
+		rep.setDataDir(dataDir);
+		rep.init();
+		return rep;
+	}
+
+	/**
+	 * @return a connection to a new repository with the proof plugin, closed once the test is done
+	 */
+	RepositoryConnection connect(String folder) throws IOException {
+		return connect(folder, null);
+	}
+
+	RepositoryConnection connect(String folder, String ruleset) throws IOException {
+		RepositoryConnection conn = newRepository(tmpFolder.newFolder(folder), ruleset).getConnection();
+		connections.add(conn);
+		return conn;
+	}
+
 	@Test
 	public void testBasicInference() throws RepositoryException, MalformedQueryException, QueryEvaluationException, RDFParseException, IOException {
 		Map<String, String> params = new HashMap<String, String>();
@@ -101,5 +171,909 @@ public class TestExplainWithProofPlugin {
 			rep.shutDown();
 		}
 	}
-}
 
+	@Test
+	public void testCachedExplainDroppedOnCommit() throws RepositoryException, MalformedQueryException, QueryEvaluationException, IOException {
+		RepositoryConnection conn = connect("proof-plugin-cache");
+		ValueFactory vf = conn.getValueFactory();
+		IRI a = vf.createIRI("urn:A");
+		IRI b = vf.createIRI("urn:B");
+		IRI c = vf.createIRI("urn:C");
+		IRI d = vf.createIRI("urn:D");
+		conn.add(a, RDFS.SUBCLASSOF, b);
+		conn.add(b, RDFS.SUBCLASSOF, c);
+
+		int initial = countExplainRows(conn, a, RDFS.SUBCLASSOF, c);
+		assertTrue("expected the inferred statement to be explained", initial > 0);
+		// same explain again is served from the cache
+		assertEquals("repeated explain", initial, countExplainRows(conn, a, RDFS.SUBCLASSOF, c));
+
+		// an alternative derivation must be visible after the commit
+		conn.add(a, RDFS.SUBCLASSOF, d);
+		conn.add(d, RDFS.SUBCLASSOF, c);
+		int extended = countExplainRows(conn, a, RDFS.SUBCLASSOF, c);
+		assertTrue("expected more solutions after adding an alternative derivation", extended > initial);
+
+		// and must disappear once its premise is removed
+		conn.remove(d, RDFS.SUBCLASSOF, c);
+		assertEquals("solutions after removal of a premise", initial, countExplainRows(conn, a, RDFS.SUBCLASSOF, c));
+	}
+
+	@Test
+	public void testManySupportingSolutions() throws RepositoryException, MalformedQueryException, QueryEvaluationException, IOException {
+		RepositoryConnection conn = connect("proof-plugin-many-solutions");
+		ValueFactory vf = conn.getValueFactory();
+		IRI x = vf.createIRI("urn:x");
+		IRI c = vf.createIRI("urn:C");
+		// each property has C as domain so each of its values supports (x rdf:type C) on its own
+		int properties = 200;
+		conn.begin();
+		for (int i = 0; i < properties; i++) {
+			IRI p = vf.createIRI("urn:p" + i);
+			conn.add(p, RDFS.DOMAIN, c);
+			conn.add(x, p, vf.createIRI("urn:y" + i));
+		}
+		conn.commit();
+
+		// every solution matches two premises: the domain declaration and the property value
+		assertEquals("total results", 2 * properties, countExplainRows(conn, x, RDF.TYPE, c));
+		// a limited explain stops after the requested number of solutions
+		assertEquals("results of pr:explainFirst", 2, countExplainRows(conn, "?ctx pr:explainFirst (?s ?p ?o)", x, RDF.TYPE, c));
+		assertEquals("results with a limit", 10, countExplainRows(conn, "?ctx pr:explain (?s ?p ?o 5)", x, RDF.TYPE, c));
+	}
+
+	/**
+	 * a support larger than the memory a request may hold is collected off the heap, with the same rows,
+	 * also when it is kept in the cache
+	 */
+	@Test
+	public void testSpill() throws RepositoryException, MalformedQueryException, QueryEvaluationException, IOException {
+		RepositoryConnection onHeap = connect("proof-plugin-on-heap");
+		System.setProperty(ProofPlugin.REQUEST_MEMORY_PROPERTY, "1");
+		RepositoryConnection spilled;
+		try {
+			spilled = connect("proof-plugin-spilled");
+		} finally {
+			System.clearProperty(ProofPlugin.REQUEST_MEMORY_PROPERTY);
+		}
+		// more than a MB of solutions of two premises each
+		int properties = 15000;
+		for (RepositoryConnection conn : Arrays.asList(onHeap, spilled)) {
+			ValueFactory vf = conn.getValueFactory();
+			conn.begin();
+			for (int i = 0; i < properties; i++) {
+				IRI p = vf.createIRI("urn:p" + i);
+				conn.add(p, RDFS.DOMAIN, vf.createIRI("urn:C"));
+				conn.add(vf.createIRI("urn:x"), p, vf.createIRI("urn:y" + i));
+			}
+			conn.commit();
+		}
+		String query = "PREFIX pr: <http://www.ontotext.com/proof/>\n" +
+				"select ?hs ?hp ?ho ?rule ?subj ?pred ?obj {\n" +
+				"     values (?hs ?hp ?ho) { (<urn:x> <" + RDF.TYPE + "> <urn:C>) }\n" +
+				"     ?ctx pr:explain (?hs ?hp ?ho) .\n" +
+				"     ?ctx pr:rule ?rule .\n" +
+				"     ?ctx pr:subject ?subj .\n" +
+				"     ?ctx pr:predicate ?pred .\n" +
+				"     ?ctx pr:object ?obj .\n" +
+				"}";
+
+		ArrayList<String> expected = collectRows(onHeap, query);
+		assertEquals("total results", 2 * properties, expected.size());
+		assertEquals("spilled without a cap", 0L, readStats(onHeap).get("spilledBytes").longValue());
+		assertEquals("rows of the spilled solutions", expected, collectRows(spilled, query));
+		assertTrue("expected the solutions to be spilled", readStats(spilled).get("spilledBytes") > 0);
+		// the second time they come from the cache
+		assertEquals("rows of the cached spilled solutions", expected, collectRows(spilled, query));
+		assertEquals("cache hits", 1L, readStats(spilled).get("cacheHits").longValue());
+	}
+
+	@Test
+	public void testRepeatedAccessors()throws RepositoryException, MalformedQueryException, QueryEvaluationException, IOException {
+		RepositoryConnection conn = connect("proof-plugin-accessors");
+		ValueFactory vf = conn.getValueFactory();
+		IRI a = vf.createIRI("urn:A");
+		IRI b = vf.createIRI("urn:B");
+		IRI c = vf.createIRI("urn:C");
+		conn.add(a, RDFS.SUBCLASSOF, b);
+		conn.add(b, RDFS.SUBCLASSOF, c);
+
+		// the same accessor twice in a row, while the iterator of the first one is still open
+		TupleQuery query = conn.prepareTupleQuery("PREFIX pr: <http://www.ontotext.com/proof/>\n" +
+				"select ?subj ?again ?rule {\n" +
+				"     ?ctx pr:explain (<urn:A> <" + RDFS.SUBCLASSOF + "> <urn:C>) .\n" +
+				"     ?ctx pr:subject ?subj .\n" +
+				"     ?ctx pr:rule ?rule .\n" +
+				"     ?ctx pr:subject ?again .\n" +
+				"}");
+		int rows = 0;
+		TupleQueryResult res = query.evaluate();
+		try {
+			while (res.hasNext()) {
+				BindingSet bs = res.next();
+				assertEquals("same accessor", bs.getValue("subj"), bs.getValue("again"));
+				rows++;
+			}
+		} finally {
+			res.close();
+		}
+		assertEquals("rows", countExplainRows(conn, a, RDFS.SUBCLASSOF, c), rows);
+	}
+
+	@Test
+	public void testBudget() throws RepositoryException, MalformedQueryException, QueryEvaluationException, IOException {
+		RepositoryConnection conn = connect("proof-plugin-budget");
+		ValueFactory vf = conn.getValueFactory();
+		IRI x = vf.createIRI("urn:x");
+		IRI c = vf.createIRI("urn:C");
+		int properties = 200;
+		conn.begin();
+		for (int i = 0; i < properties; i++) {
+			IRI p = vf.createIRI("urn:p" + i);
+			conn.add(p, RDFS.DOMAIN, c);
+			conn.add(x, p, vf.createIRI("urn:y" + i));
+		}
+		conn.commit();
+
+		String budgeted = "PREFIX pr: <http://www.ontotext.com/proof/>\n" +
+				"select ?subj ?partial {\n" +
+				"     \"matches\" pr:budget 10 .\n" +
+				"     ?ctx pr:explain (<urn:x> <" + RDF.TYPE + "> <urn:C>) .\n" +
+				"     ?ctx pr:subject ?subj .\n" +
+				"     ?ctx pr:partial ?partial .\n" +
+				"}";
+		int rows = 0;
+		TupleQueryResult res = conn.prepareTupleQuery(budgeted).evaluate();
+		try {
+			while (res.hasNext()) {
+				assertEquals("partial marker", "true", res.next().getValue("partial").stringValue());
+				rows++;
+			}
+		} finally {
+			res.close();
+		}
+		// every solution matches two premises
+		assertTrue("expected some of the solutions", rows > 0);
+		assertTrue("expected the explain to stop at the budget", rows <= 2 * 10);
+		// the partial result is not cached
+		assertEquals("total results", 2 * properties, countExplainRows(conn, x, RDF.TYPE, c));
+	}
+
+	@Test
+	public void testRuleFilter() throws RepositoryException, MalformedQueryException, QueryEvaluationException, IOException {
+		RepositoryConnection conn = connect("proof-plugin-rule-filter");
+		ValueFactory vf = conn.getValueFactory();
+		IRI x = vf.createIRI("urn:x");
+		IRI c = vf.createIRI("urn:C");
+		conn.add(x, RDF.TYPE, vf.createIRI("urn:A"));
+		conn.add(vf.createIRI("urn:A"), RDFS.SUBCLASSOF, vf.createIRI("urn:B"));
+		conn.add(vf.createIRI("urn:B"), RDFS.SUBCLASSOF, c);
+
+		// the rows of each rule without a filter
+		HashMap<String, Integer> rowsPerRule = new HashMap<String, Integer>();
+		for (String rule : explainRules(conn, "?ctx pr:explain (?s ?p ?o)", x, RDF.TYPE, c)) {
+			Integer rows = rowsPerRule.get(rule);
+			rowsPerRule.put(rule, rows == null ? 1 : rows + 1);
+		}
+		assertTrue("expected some solutions", !rowsPerRule.isEmpty());
+		String rule = rowsPerRule.keySet().iterator().next();
+
+		ArrayList<String> filtered = explainRules(conn, "?ctx pr:explain (?s ?p ?o \"" + rule + "\")", x, RDF.TYPE, c);
+		assertEquals("rows of " + rule, rowsPerRule.get(rule).intValue(), filtered.size());
+		assertEquals("rules", Collections.singleton(rule), new HashSet<String>(filtered));
+
+		assertEquals("rows of an unknown rule", 0,
+				explainRules(conn, "?ctx pr:explain (?s ?p ?o \"noSuchRule\")", x, RDF.TYPE, c).size());
+		// the solutions of the unfiltered explain are still there
+		assertEquals("rows after a filtered explain", sum(rowsPerRule),
+				explainRules(conn, "?ctx pr:explain (?s ?p ?o)", x, RDF.TYPE, c).size());
+		// the limit comes before the rules
+		assertTrue("limit and rule", explainRules(conn, "?ctx pr:explain (?s ?p ?o 1 \"" + rule + "\")", x, RDF.TYPE, c).size() > 0);
+		assertEquals("explicit", Collections.singletonList("explicit"),
+				explainRules(conn, "?ctx pr:explainFirst (?s ?p ?o \"explicit\")", x, RDF.TYPE, vf.createIRI("urn:A")));
+
+		// the rules that have been reported are in the catalog with the predicates they have derived
+		TupleQuery catalog = conn.prepareTupleQuery("PREFIX pr: <http://www.ontotext.com/proof/>\n" +
+				"select ?pred ?premises { ?rule pr:rules ?pred . ?rule pr:premiseCount ?premises }");
+		catalog.setBinding("rule", vf.createLiteral(rule));
+		HashSet<String> heads = new HashSet<String>();
+		TupleQueryResult res = catalog.evaluate();
+		try {
+			while (res.hasNext()) {
+				BindingSet row = res.next();
+				heads.add(row.getValue("pred").stringValue());
+				assertTrue("premises of " + rule, ((Literal)row.getValue("premises")).intValue() > 0);
+			}
+		} finally {
+			res.close();
+		}
+		assertTrue("heads of " + rule + ": " + heads, heads.contains(RDF.TYPE.stringValue()));
+	}
+
+	private static int sum(Map<String, Integer> counts) {
+		int sum = 0;
+		for (Integer count : counts.values())
+			sum += count;
+		return sum;
+	}
+
+	private static ArrayList<String> explainRules(RepositoryConnection conn, String explainPattern, Value s, Value p, Value o) {
+		TupleQuery query = conn.prepareTupleQuery("PREFIX pr: <http://www.ontotext.com/proof/>\n" +
+				"select ?rule ?subj ?pred ?obj {\n" +
+				"     " + explainPattern + " .\n" +
+				"     ?ctx pr:rule ?rule .\n" +
+				"     ?ctx pr:subject ?subj .\n" +
+				"     ?ctx pr:predicate ?pred .\n" +
+				"     ?ctx pr:object ?obj .\n" +
+				"}");
+		query.setBinding("s", s);
+		query.setBinding("p", p);
+		query.setBinding("o", o);
+		ArrayList<String> rules = new ArrayList<String>();
+		TupleQueryResult res = query.evaluate();
+		try {
+			while (res.hasNext())
+				rules.add(res.next().getValue("rule").stringValue());
+		} finally {
+			res.close();
+		}
+		return rules;
+	}
+
+	@Test
+	public void testContextFilter() throws RepositoryException, MalformedQueryException, QueryEvaluationException, IOException {
+		RepositoryConnection conn = connect("proof-plugin-context-filter");
+		ValueFactory vf = conn.getValueFactory();
+		IRI x = vf.createIRI("urn:x");
+		IRI b = vf.createIRI("urn:B");
+		IRI g1 = vf.createIRI("urn:g1");
+		IRI g2 = vf.createIRI("urn:g2");
+		IRI g3 = vf.createIRI("urn:g3");
+		conn.add(x, RDF.TYPE, vf.createIRI("urn:A"), g1);
+		conn.add(vf.createIRI("urn:A"), RDFS.SUBCLASSOF, b, g2);
+		// the same schema statement is in another graph as well
+		conn.add(vf.createIRI("urn:A"), RDFS.SUBCLASSOF, b, g3);
+
+		ArrayList<String> contexts = explainContexts(conn, "?ctx pr:explain (?s ?p ?o <urn:g1> <urn:g3>)", x, RDF.TYPE, b);
+		assertTrue("expected some solutions", !contexts.isEmpty());
+		// the premise in both graphs is shown in the allowed one
+		assertEquals("contexts", new HashSet<String>(Arrays.asList("urn:g1", "urn:g3")), new HashSet<String>(contexts));
+		assertEquals("rows of explainFirst", 2,
+				explainContexts(conn, "?ctx pr:explainFirst (?s ?p ?o <urn:g1> <urn:g2>)", x, RDF.TYPE, b).size());
+		assertEquals("rows without the graph of a premise", 0,
+				explainContexts(conn, "?ctx pr:explain (?s ?p ?o <urn:g2> <urn:g3>)", x, RDF.TYPE, b).size());
+		// the rule names and the limit may be given as well
+		assertEquals("rows with a limit and a rule", 2,
+				explainContexts(conn, "?ctx pr:explain (?s ?p ?o 1 <urn:g1> \"rdfs9\" <urn:g2>)", x, RDF.TYPE, b).size());
+		// an explicit statement is its own premise
+		assertEquals("explicit in an allowed graph", Collections.singletonList("urn:g1"),
+				explainContexts(conn, "?ctx pr:explain (?s ?p ?o <urn:g1>)", x, RDF.TYPE, vf.createIRI("urn:A")));
+		assertEquals("explicit in another graph", 0,
+				explainContexts(conn, "?ctx pr:explain (?s ?p ?o <urn:g2>)", x, RDF.TYPE, vf.createIRI("urn:A")).size());
+		// the unrestricted explain is not affected
+		assertTrue("rows without a restriction", explainContexts(conn, "?ctx pr:explain (?s ?p ?o)", x, RDF.TYPE, b).size() >= 2);
+	}
+
+	private static ArrayList<String> explainContexts(RepositoryConnection conn, String explainPattern, Value s, Value p, Value o) {
+		TupleQuery query = conn.prepareTupleQuery("PREFIX pr: <http://www.ontotext.com/proof/>\n" +
+				"select ?context {\n" +
+				"     " + explainPattern + " .\n" +
+				"     ?ctx pr:context ?context .\n" +
+				"}");
+		query.setBinding("s", s);
+		query.setBinding("p", p);
+		query.setBinding("o", o);
+		ArrayList<String> contexts = new ArrayList<String>();
+		TupleQueryResult res = query.evaluate();
+		try {
+			while (res.hasNext())
+				contexts.add(res.next().getValue("context").stringValue());
+		} finally {
+			res.close();
+		}
+		return contexts;
+	}
+
+	/**
+	 * a statement that is not stored, as it exists only through the owl:sameAs equivalence of its subject, is explained
+	 * by the stored statement and the sameAs statement linking the subjects
+	 */
+	@Test
+	public void testSameAs() throws RepositoryException, MalformedQueryException, QueryEvaluationException, IOException {
+		RepositoryConnection conn = connect("proof-plugin-same-as", "owl-horst-optimized");
+		ValueFactory vf = conn.getValueFactory();
+		IRI a = vf.createIRI("urn:a");
+		IRI b = vf.createIRI("urn:b");
+		IRI p = vf.createIRI("urn:p");
+		IRI c = vf.createIRI("urn:c");
+		conn.add(a, p, c);
+		conn.add(a, OWL.SAMEAS, b);
+
+		TupleQuery query = conn.prepareTupleQuery("PREFIX pr: <http://www.ontotext.com/proof/>\n" +
+				"select ?rule ?subj ?pred ?obj {\n" +
+				"     ?ctx pr:explain (?s ?p ?o) .\n" +
+				"     ?ctx pr:rule ?rule .\n" +
+				"     ?ctx pr:subject ?subj .\n" +
+				"     ?ctx pr:predicate ?pred .\n" +
+				"     ?ctx pr:object ?obj .\n" +
+				"}");
+		query.setBinding("s", b);
+		query.setBinding("p", p);
+		query.setBinding("o", c);
+		ArrayList<BindingSet> rows = new ArrayList<BindingSet>();
+		TupleQueryResult res = query.evaluate();
+		try {
+			while (res.hasNext())
+				rows.add(res.next());
+		} finally {
+			res.close();
+		}
+		assertEquals("the stored statement and the chain of the subject", 2, rows.size());
+		for (BindingSet bs : rows)
+			assertEquals("rule", "sameAs", bs.getValue("rule").stringValue());
+		assertEquals("stored statement", Arrays.<Value>asList(a, p, c),
+				Arrays.asList(rows.get(0).getValue("subj"), rows.get(0).getValue("pred"), rows.get(0).getValue("obj")));
+		BindingSet link = rows.get(1);
+		assertEquals("chain", OWL.SAMEAS, link.getValue("pred"));
+		assertEquals("chain", new HashSet<Value>(Arrays.<Value>asList(a, b)),
+				new HashSet<Value>(Arrays.asList(link.getValue("subj"), link.getValue("obj"))));
+	}
+
+	@Test
+	public void testExplainTree() throws RepositoryException, MalformedQueryException, QueryEvaluationException, IOException {
+		RepositoryConnection conn = connect("proof-plugin-tree");
+		ValueFactory vf = conn.getValueFactory();
+		IRI x = vf.createIRI("urn:x");
+		IRI d = vf.createIRI("urn:D");
+		// x is an instance of D through a chain of subclasses
+		conn.add(x, RDF.TYPE, vf.createIRI("urn:A"));
+		conn.add(vf.createIRI("urn:A"), RDFS.SUBCLASSOF, vf.createIRI("urn:B"));
+		conn.add(vf.createIRI("urn:B"), RDFS.SUBCLASSOF, vf.createIRI("urn:C"));
+		conn.add(vf.createIRI("urn:C"), RDFS.SUBCLASSOF, d);
+
+		int explainRows = countExplainRows(conn, x, RDF.TYPE, d);
+		TupleQuery query = conn.prepareTupleQuery("PREFIX pr: <http://www.ontotext.com/proof/>\n" +
+				"select ?depth ?hs ?hp ?ho ?rule ?subj ?pred ?obj {\n" +
+				"     ?ctx pr:explainTree (?s ?p ?o) .\n" +
+				"     ?ctx pr:depth ?depth .\n" +
+				"     ?ctx pr:headSubject ?hs .\n" +
+				"     ?ctx pr:headPredicate ?hp .\n" +
+				"     ?ctx pr:headObject ?ho .\n" +
+				"     ?ctx pr:rule ?rule .\n" +
+				"     ?ctx pr:subject ?subj .\n" +
+				"     ?ctx pr:predicate ?pred .\n" +
+				"     ?ctx pr:object ?obj .\n" +
+				"}");
+		query.setBinding("s", x);
+		query.setBinding("p", RDF.TYPE);
+		query.setBinding("o", d);
+		int rootRows = 0;
+		int deeperRows = 0;
+		HashSet<String> heads = new HashSet<String>();
+		TupleQueryResult res = query.evaluate();
+		try {
+			while (res.hasNext()) {
+				BindingSet bs = res.next();
+				heads.add(bs.getValue("hs") + " " + bs.getValue("hp") + " " + bs.getValue("ho"));
+				if (Integer.parseInt(bs.getValue("depth").stringValue()) == 0)
+					rootRows++;
+				else
+					deeperRows++;
+			}
+		} finally {
+			res.close();
+		}
+		assertEquals("the first level is the same as pr:explain", explainRows, rootRows);
+		assertTrue("expected the inferred premises to be explained", deeperRows > 0);
+		assertTrue("expected more than one explained statement", heads.size() > 1);
+
+		// with a depth of 0 only the statement itself is explained
+		assertEquals("results with max depth 0", explainRows,
+				countExplainRows(conn, "?ctx pr:explainTree (?s ?p ?o 0)", x, RDF.TYPE, d));
+	}
+
+	/**
+	 * statements of a symmetric and transitive property all support each other, each of them is explained once and
+	 * the levels explained on a thread pool give the same rows as the ones explained on the request thread
+	 */
+	@Test
+	public void testExplainTreeCycles() throws RepositoryException, MalformedQueryException, QueryEvaluationException, IOException {
+		RepositoryConnection sequential = connect("proof-plugin-tree-cycles-sequential", "owl-horst-optimized");
+		System.setProperty(ProofPlugin.PARALLELISM_PROPERTY, "4");
+		System.setProperty(ProofCache.SIZE_PROPERTY, "0");
+		RepositoryConnection parallel;
+		try {
+			parallel = connect("proof-plugin-tree-cycles-parallel", "owl-horst-optimized");
+		} finally {
+			System.clearProperty(ProofPlugin.PARALLELISM_PROPERTY);
+			System.clearProperty(ProofCache.SIZE_PROPERTY);
+		}
+		String query = null;
+		for (RepositoryConnection conn : Arrays.asList(sequential, parallel)) {
+			ValueFactory vf = conn.getValueFactory();
+			IRI r = vf.createIRI("urn:r");
+			IRI s = vf.createIRI("urn:s");
+			conn.begin();
+			conn.add(s, RDF.TYPE, OWL.SYMMETRICPROPERTY);
+			conn.add(s, RDF.TYPE, OWL.TRANSITIVEPROPERTY);
+			conn.add(r, RDFS.SUBPROPERTYOF, s);
+			conn.add(vf.createIRI("urn:a"), r, vf.createIRI("urn:b"));
+			conn.add(vf.createIRI("urn:b"), r, vf.createIRI("urn:c"));
+			conn.add(vf.createIRI("urn:c"), r, vf.createIRI("urn:a"));
+			conn.commit();
+			query = "PREFIX pr: <http://www.ontotext.com/proof/>\n" +
+					"select ?depth ?hs ?hp ?ho ?rule ?subj ?pred ?obj {\n" +
+					"     ?ctx pr:explainTree (<urn:a> <" + s + "> <urn:b>) .\n" +
+					"     ?ctx pr:depth ?depth .\n" +
+					"     ?ctx pr:headSubject ?hs .\n" +
+					"     ?ctx pr:headPredicate ?hp .\n" +
+					"     ?ctx pr:headObject ?ho .\n" +
+					"     ?ctx pr:rule ?rule .\n" +
+					"     ?ctx pr:subject ?subj .\n" +
+					"     ?ctx pr:predicate ?pred .\n" +
+					"     ?ctx pr:object ?obj .\n" +
+					"}";
+		}
+
+		HashMap<String, String> depths = new HashMap<String, String>();
+		HashSet<String> pairs = new HashSet<String>();
+		TupleQueryResult res = sequential.prepareTupleQuery(query).evaluate();
+		try {
+			while (res.hasNext()) {
+				BindingSet bs = res.next();
+				String head = bs.getValue("hs") + " " + bs.getValue("hp") + " " + bs.getValue("ho");
+				String depth = bs.getValue("depth").stringValue();
+				if ("urn:s".equals(bs.getValue("hp").stringValue()))
+					pairs.add(head);
+				String known = depths.put(head, depth);
+				assertTrue("expected " + head + " to be explained once", known == null || known.equals(depth));
+			}
+		} finally {
+			res.close();
+		}
+		// the 9 statements of s between a, b and c
+		assertEquals("explained statements of s", 9, pairs.size());
+		assertEquals("the statement itself", "0", depths.get("urn:a urn:s urn:b"));
+
+		ArrayList<String> expected = collectRows(sequential, query);
+		for (int i = 0; i < 3; i++)
+			assertEquals("rows of the levels explained in parallel", expected, collectRows(parallel, query));
+	}
+
+	@Test
+	public void testShortestProof() throws RepositoryException, MalformedQueryException, QueryEvaluationException, IOException {
+		RepositoryConnection conn = connect("proof-plugin-shortest");
+		ValueFactory vf = conn.getValueFactory();
+		IRI x = vf.createIRI("urn:x");
+		IRI a = vf.createIRI("urn:A");
+		IRI d = vf.createIRI("urn:D");
+		// x is an instance of D through a chain of subclasses and through a direct shortcut
+		conn.add(x, RDF.TYPE, a);
+		conn.add(a, RDFS.SUBCLASSOF, vf.createIRI("urn:B"));
+		conn.add(vf.createIRI("urn:B"), RDFS.SUBCLASSOF, vf.createIRI("urn:C"));
+		conn.add(vf.createIRI("urn:C"), RDFS.SUBCLASSOF, d);
+		conn.add(a, RDFS.SUBCLASSOF, d);
+
+		TupleQuery query = conn.prepareTupleQuery("PREFIX pr: <http://www.ontotext.com/proof/>\n" +
+				"select ?depth ?hs ?hp ?ho ?rule ?subj ?pred ?obj {\n" +
+				"     ?ctx pr:shortestProof (?s ?p ?o) .\n" +
+				"     ?ctx pr:depth ?depth .\n" +
+				"     ?ctx pr:headSubject ?hs .\n" +
+				"     ?ctx pr:headPredicate ?hp .\n" +
+				"     ?ctx pr:headObject ?ho .\n" +
+				"     ?ctx pr:rule ?rule .\n" +
+				"     ?ctx pr:subject ?subj .\n" +
+				"     ?ctx pr:predicate ?pred .\n" +
+				"     ?ctx pr:object ?obj .\n" +
+				"}");
+		query.setBinding("s", x);
+		query.setBinding("p", RDF.TYPE);
+		query.setBinding("o", d);
+		HashSet<String> heads = new HashSet<String>();
+		HashSet<String> rules = new HashSet<String>();
+		HashSet<String> premises = new HashSet<String>();
+		TupleQueryResult res = query.evaluate();
+		try {
+			while (res.hasNext()) {
+				BindingSet bs = res.next();
+				heads.add(bs.getValue("hs") + " " + bs.getValue("hp") + " " + bs.getValue("ho"));
+				rules.add(bs.getValue("rule").stringValue());
+				premises.add(bs.getValue("subj") + " " + bs.getValue("pred") + " " + bs.getValue("obj"));
+				assertEquals("depth", "0", bs.getValue("depth").stringValue());
+			}
+		} finally {
+			res.close();
+		}
+		// both premises of the shortcut are explicit, so there is nothing else to explain
+		assertEquals("explained statements", 1, heads.size());
+		assertEquals("solutions", 1, rules.size());
+		assertTrue("expected the shortcut as a premise", premises.contains(a + " " + RDFS.SUBCLASSOF + " " + d));
+		assertTrue("expected the type of x as a premise", premises.contains(x + " " + RDF.TYPE + " " + a));
+
+		// the max depth is the one of the deepest statement returned, so the shortcut fits within 0
+		assertEquals("results with max depth 0", 2,
+				countExplainRows(conn, "?ctx pr:shortestProof (?s ?p ?o 0)", x, RDF.TYPE, d));
+
+		// every derivation of (x rdf:type C) has an inferred premise, so with 0 explainTree returns its solutions
+		// without explaining the premises while shortestProof has no complete derivation to return
+		IRI c = vf.createIRI("urn:C");
+		assertTrue("expected the solutions of the statement",
+				countExplainRows(conn, "?ctx pr:explainTree (?s ?p ?o 0)", x, RDF.TYPE, c) > 0);
+		assertEquals("results with max depth 0", 0,
+				countExplainRows(conn, "?ctx pr:shortestProof (?s ?p ?o 0)", x, RDF.TYPE, c));
+		// with 1 the inferred premise is returned as well
+		assertEquals("results with max depth 1", 4,
+				countExplainRows(conn, "?ctx pr:shortestProof (?s ?p ?o 1)", x, RDF.TYPE, c));
+	}
+
+	@Test
+	public void testSupports() throws RepositoryException, MalformedQueryException, QueryEvaluationException, IOException {
+		RepositoryConnection conn = connect("proof-plugin-supports");
+		ValueFactory vf = conn.getValueFactory();
+		IRI x = vf.createIRI("urn:x");
+		IRI y = vf.createIRI("urn:y");
+		IRI a = vf.createIRI("urn:A");
+		IRI b = vf.createIRI("urn:B");
+		IRI c = vf.createIRI("urn:C");
+		conn.add(x, RDF.TYPE, a);
+		conn.add(y, RDF.TYPE, c);
+		conn.add(a, RDFS.SUBCLASSOF, b);
+
+		HashSet<String> heads = supportedHeads(conn, a, RDFS.SUBCLASSOF, b);
+		assertTrue("expected (x rdf:type B) to be supported", heads.contains(x + " " + RDF.TYPE + " " + b));
+
+		// the type of y has nothing to do with the subclass
+		heads = supportedHeads(conn, y, RDF.TYPE, c);
+		assertTrue("unexpected (x rdf:type B)", !heads.contains(x + " " + RDF.TYPE + " " + b));
+	}
+
+	/**
+	 * the premise (y rdf:type D) of a someValuesFrom restriction shares only rdf:type with the (x rdf:type R) it supports
+	 */
+	@Test
+	public void testSupportsThroughRestriction() throws RepositoryException, MalformedQueryException, QueryEvaluationException, IOException {
+		RepositoryConnection conn = connect("proof-plugin-supports-restriction", "owl-horst-optimized");
+		ValueFactory vf = conn.getValueFactory();
+		IRI x = vf.createIRI("urn:x");
+		IRI y = vf.createIRI("urn:y");
+		IRI p = vf.createIRI("urn:p");
+		IRI d = vf.createIRI("urn:D");
+		IRI r = vf.createIRI("urn:R");
+		conn.begin();
+		conn.add(r, RDF.TYPE, OWL.RESTRICTION);
+		conn.add(r, OWL.ONPROPERTY, p);
+		conn.add(r, OWL.SOMEVALUESFROM, d);
+		conn.add(x, p, y);
+		conn.add(y, RDF.TYPE, d);
+		conn.commit();
+
+		assertTrue("expected (x rdf:type R) to be supported", supportedHeads(conn, y, RDF.TYPE, d).contains(x + " " + RDF.TYPE + " " + r));
+	}
+
+	private static HashSet<String> supportedHeads(RepositoryConnection conn, Value s, Value p, Value o) {
+		TupleQuery supports = conn.prepareTupleQuery("PREFIX pr: <http://www.ontotext.com/proof/>\n" +
+				"select ?hs ?hp ?ho ?rule ?subj ?pred ?obj {\n" +
+				"     ?ctx pr:supports (?s ?p ?o) .\n" +
+				"     ?ctx pr:headSubject ?hs .\n" +
+				"     ?ctx pr:headPredicate ?hp .\n" +
+				"     ?ctx pr:headObject ?ho .\n" +
+				"     ?ctx pr:rule ?rule .\n" +
+				"     ?ctx pr:subject ?subj .\n" +
+				"     ?ctx pr:predicate ?pred .\n" +
+				"     ?ctx pr:object ?obj .\n" +
+				"}");
+		supports.setBinding("s", s);
+		supports.setBinding("p", p);
+		supports.setBinding("o", o);
+		HashSet<String> heads = new HashSet<String>();
+		TupleQueryResult res = supports.evaluate();
+		try {
+			while (res.hasNext()) {
+				BindingSet bs = res.next();
+				heads.add(bs.getValue("hs") + " " + bs.getValue("hp") + " " + bs.getValue("ho"));
+			}
+		} finally {
+			res.close();
+		}
+		return heads;
+	}
+
+	@Test
+	public void testExplainAll() throws RepositoryException, MalformedQueryException, QueryEvaluationException, IOException {
+		RepositoryConnection conn = connect("proof-plugin-explain-all");
+		ValueFactory vf = conn.getValueFactory();
+		IRI x = vf.createIRI("urn:x");
+		conn.add(x, RDF.TYPE, vf.createIRI("urn:A"));
+		conn.add(vf.createIRI("urn:A"), RDFS.SUBCLASSOF, vf.createIRI("urn:B"));
+		conn.add(vf.createIRI("urn:B"), RDFS.SUBCLASSOF, vf.createIRI("urn:C"));
+
+		ArrayList<String> first = collectRows(conn, EXPLAIN_ALL_QUERY);
+		assertTrue("expected (x rdf:type C) to be explained",
+				first.toString().contains(x + " " + RDF.TYPE + " urn:C "));
+		// the results come in the order of the graph index
+		assertEquals("repeated bulk explain", first, collectRows(conn, EXPLAIN_ALL_QUERY));
+	}
+
+	private static final String EXPLAIN_ALL_QUERY = "PREFIX pr: <http://www.ontotext.com/proof/>\n" +
+			"PREFIX onto: <http://www.ontotext.com/>\n" +
+			"select ?hs ?hp ?ho ?rule ?subj ?pred ?obj {\n" +
+			"     ?ctx pr:explainAll onto:implicit .\n" +
+			"     ?ctx pr:headSubject ?hs .\n" +
+			"     ?ctx pr:headPredicate ?hp .\n" +
+			"     ?ctx pr:headObject ?ho .\n" +
+			"     ?ctx pr:rule ?rule .\n" +
+			"     ?ctx pr:subject ?subj .\n" +
+			"     ?ctx pr:predicate ?pred .\n" +
+			"     ?ctx pr:object ?obj .\n" +
+			"}";
+
+	/**
+	 * the statements explained on a thread pool come in the same order and with the same solutions as when explained
+	 * on the request thread, and a query that stops early closes the iterator while some of them are being explained
+	 */
+	@Test
+	public void testExplainAllInParallel() throws RepositoryException, MalformedQueryException, QueryEvaluationException, IOException {
+		RepositoryConnection sequential = connect("proof-plugin-explain-all-sequential");
+		// without the cache every run goes through the inferencer on the pool
+		System.setProperty(ProofPlugin.PARALLELISM_PROPERTY, "4");
+		System.setProperty(ProofCache.SIZE_PROPERTY, "0");
+		RepositoryConnection parallel;
+		try {
+			parallel = connect("proof-plugin-explain-all-parallel");
+		} finally {
+			System.clearProperty(ProofPlugin.PARALLELISM_PROPERTY);
+			System.clearProperty(ProofCache.SIZE_PROPERTY);
+		}
+		for (RepositoryConnection conn : Arrays.asList(sequential, parallel)) {
+			ValueFactory vf = conn.getValueFactory();
+			conn.begin();
+			for (int i = 0; i < 30; i++) {
+				conn.add(vf.createIRI("urn:C" + i), RDFS.SUBCLASSOF, vf.createIRI("urn:C" + (i + 1)));
+				conn.add(vf.createIRI("urn:x" + i), RDF.TYPE, vf.createIRI("urn:C" + i));
+			}
+			conn.commit();
+		}
+
+		ArrayList<String> expected = collectRows(sequential, EXPLAIN_ALL_QUERY);
+		assertTrue("expected many solutions", expected.size() > 100);
+		for (int i = 0; i < 5; i++) {
+			assertEquals("first rows", expected.subList(0, 10), collectRows(parallel, EXPLAIN_ALL_QUERY + " limit 10"));
+			assertEquals("all rows", expected, collectRows(parallel, EXPLAIN_ALL_QUERY));
+		}
+	}
+
+	@Test
+	public void testExportProofs() throws RepositoryException, MalformedQueryException, QueryEvaluationException, IOException {
+		RepositoryConnection conn = connect("proof-plugin-export");
+		File exportDir = tmpFolder.newFolder("proof-plugin-export-files");
+		System.setProperty(ProofPlugin.EXPORT_DIR_PROPERTY, exportDir.getPath());
+		try {
+			ValueFactory vf = conn.getValueFactory();
+			conn.add(vf.createIRI("urn:x"), RDF.TYPE, vf.createIRI("urn:A"));
+			conn.add(vf.createIRI("urn:A"), RDFS.SUBCLASSOF, vf.createIRI("urn:B"));
+
+			long count = exportProofs(conn, "proofs.nqs", "nquads-star");
+			assertTrue("expected the inferred statements to be exported", count > 0);
+			String nquads = new String(Files.readAllBytes(new File(exportDir, "proofs.nqs").toPath()), StandardCharsets.UTF_8);
+			assertTrue("expected (x rdf:type B) to be explained",
+					nquads.contains("<http://www.ontotext.com/proof/explains> << <urn:x> <" + RDF.TYPE + "> <urn:B> >> ."));
+			assertTrue("a complete export is not marked", !nquads.contains("<http://www.ontotext.com/proof/partial>"));
+
+			assertEquals("binary export", count, exportProofs(conn, "proofs.bin", "binary"));
+			byte[] binary = Files.readAllBytes(new File(exportDir, "proofs.bin").toPath());
+			assertEquals("magic", 0x50525846, ByteBuffer.wrap(binary).getInt());
+
+			// the file has to be in the export directory
+			assertEquals("path in the file name", -1L, exportProofs(conn, "../proofs.nqs", "nquads-star"));
+
+			// a pattern evaluated for each row of a join writes the file once
+			long calls = readStats(conn).get("isSupportedCalls");
+			assertEquals(count, exportProofs(conn, "once.nqs", "nquads-star"));
+			long once = readStats(conn).get("isSupportedCalls") - calls;
+			assertTrue("expected the inferencer to be called", once > 0);
+			calls += once;
+			TupleQueryResult res = conn.prepareTupleQuery("PREFIX pr: <http://www.ontotext.com/proof/>\n" +
+					"PREFIX onto: <http://www.ontotext.com/>\n" +
+					"select ?n ?count { values ?n { 1 2 3 } ?count pr:exportProofs (onto:implicit \"joined.nqs\") }").evaluate();
+			try {
+				int rows = 0;
+				for (; res.hasNext(); rows++)
+					assertEquals(count, Long.parseLong(res.next().getValue("count").stringValue()));
+				assertEquals("rows", 3, rows);
+			} finally {
+				res.close();
+			}
+			assertEquals("inferencer calls of the joined export", once, readStats(conn).get("isSupportedCalls") - calls);
+
+			// an export cut short by the budget is marked at its end
+			res = conn.prepareTupleQuery("PREFIX pr: <http://www.ontotext.com/proof/>\n" +
+					"PREFIX onto: <http://www.ontotext.com/>\n" +
+					"select ?count { \"matches\" pr:budget 1 . ?count pr:exportProofs (onto:implicit \"partial.nqs\") }").evaluate();
+			try {
+				assertTrue("expected the partial export to bind its count", res.hasNext());
+				assertTrue("expected fewer statements", Long.parseLong(res.next().getValue("count").stringValue()) <= count);
+			} finally {
+				res.close();
+			}
+			String partial = new String(Files.readAllBytes(new File(exportDir, "partial.nqs").toPath()), StandardCharsets.UTF_8);
+			assertTrue("expected the partial marker", partial.endsWith("_:export <http://www.ontotext.com/proof/partial> "
+					+ "\"true\"^^<http://www.w3.org/2001/XMLSchema#boolean> .\n"));
+		} finally {
+			System.clearProperty(ProofPlugin.EXPORT_DIR_PROPERTY);
+		}
+	}
+
+	/**
+	 * @return the number of exported statements or -1 if nothing has been exported
+	 */
+	private static long exportProofs(RepositoryConnection conn, String fileName, String format) {
+		TupleQueryResult res = conn.prepareTupleQuery("PREFIX pr: <http://www.ontotext.com/proof/>\n" +
+				"PREFIX onto: <http://www.ontotext.com/>\n" +
+				"select ?count { ?count pr:exportProofs (onto:implicit \"" + fileName + "\" \"" + format + "\") }").evaluate();
+		try {
+			return res.hasNext() ? Long.parseLong(res.next().getValue("count").stringValue()) : -1;
+		} finally {
+			res.close();
+		}
+	}
+
+	@Test
+	public void testStats() throws RepositoryException, MalformedQueryException, QueryEvaluationException, IOException {
+		RepositoryConnection conn = connect("proof-plugin-stats");
+		ValueFactory vf = conn.getValueFactory();
+		IRI a = vf.createIRI("urn:A");
+		IRI b = vf.createIRI("urn:B");
+		IRI c = vf.createIRI("urn:C");
+		conn.add(a, RDFS.SUBCLASSOF, b);
+		conn.add(b, RDFS.SUBCLASSOF, c);
+
+		int rows = countExplainRows(conn, a, RDFS.SUBCLASSOF, c);
+		Map<String, Long> stats = readStats(conn);
+		assertEquals("inferencer calls", 1L, stats.get("isSupportedCalls").longValue());
+		assertEquals("rows", (long)rows, stats.get("rows").longValue());
+		assertTrue("expected the premises to be looked up", stats.get("premiseLookups") > 0);
+		long perRule = 0;
+		for (Map.Entry<String, Long> entry : stats.entrySet()) {
+			if (entry.getKey().startsWith("rows/"))
+				perRule += entry.getValue();
+		}
+		assertEquals("rows per rule", (long)rows, perRule);
+
+		// the repeated explain is served from the cache
+		countExplainRows(conn, a, RDFS.SUBCLASSOF, c);
+		stats = readStats(conn);
+		assertEquals("inferencer calls after a cached explain", 1L, stats.get("isSupportedCalls").longValue());
+		assertEquals("cache hits", 1L, stats.get("cacheHits").longValue());
+	}
+
+	/**
+	 * the provenance index serves the statements explained before a restart and drops only the ones a change affects
+	 */
+	@Test
+	public void testProvenanceIndexAcrossRestart() throws RepositoryException, MalformedQueryException, QueryEvaluationException, IOException {
+		File dataDir = tmpFolder.newFolder("proof-plugin-index");
+		System.setProperty(ProvenanceIndex.ENABLED_PROPERTY, "true");
+		try {
+			SailRepository rep = newRepository(dataDir);
+			RepositoryConnection conn = rep.getConnection();
+			ValueFactory vf = conn.getValueFactory();
+			IRI x = vf.createIRI("urn:x");
+			IRI a = vf.createIRI("urn:A");
+			IRI b = vf.createIRI("urn:B");
+			IRI c = vf.createIRI("urn:C");
+			conn.add(x, RDF.TYPE, a);
+			conn.add(a, RDFS.SUBCLASSOF, b);
+			conn.add(b, RDFS.SUBCLASSOF, c);
+			ArrayList<String> explained = explainRules(conn, "?ctx pr:explain (?s ?p ?o)", x, RDF.TYPE, c);
+			assertTrue("expected (x rdf:type C) to be explained", explained.size() > 0);
+			conn.close();
+			rep.shutDown();
+
+			rep = newRepository(dataDir);
+			conn = rep.getConnection();
+			assertEquals("explained after a restart", explained, explainRules(conn, "?ctx pr:explain (?s ?p ?o)", x, RDF.TYPE, c));
+			assertEquals("inferencer calls after a restart", 0L, readStats(conn).get("isSupportedCalls").longValue());
+
+			// a statement that shares no node with it keeps the entry
+			conn.add(vf.createIRI("urn:y"), RDF.TYPE, vf.createIRI("urn:E"));
+			assertEquals("explained after an unrelated change", explained, explainRules(conn, "?ctx pr:explain (?s ?p ?o)", x, RDF.TYPE, c));
+			assertEquals("inferencer calls after an unrelated change", 0L, readStats(conn).get("isSupportedCalls").longValue());
+
+			// an alternative derivation drops it
+			IRI d = vf.createIRI("urn:D");
+			conn.begin();
+			conn.add(x, RDF.TYPE, d);
+			conn.add(d, RDFS.SUBCLASSOF, c);
+			conn.commit();
+			ArrayList<String> extended = explainRules(conn, "?ctx pr:explain (?s ?p ?o)", x, RDF.TYPE, c);
+			assertTrue("expected more solutions after adding an alternative derivation", extended.size() > explained.size());
+			explained = extended;
+			assertEquals("inferencer calls after a change", 1L, readStats(conn).get("isSupportedCalls").longValue());
+			conn.close();
+			rep.shutDown();
+
+			// a change made while the index is disabled is not followed by it, so it is started over
+			System.clearProperty(ProvenanceIndex.ENABLED_PROPERTY);
+			rep = newRepository(dataDir);
+			conn = rep.getConnection();
+			IRI e = vf.createIRI("urn:E");
+			conn.begin();
+			conn.add(x, RDF.TYPE, e);
+			conn.add(e, RDFS.SUBCLASSOF, c);
+			conn.commit();
+			conn.close();
+			rep.shutDown();
+			System.setProperty(ProvenanceIndex.ENABLED_PROPERTY, "true");
+			conn = newRepository(dataDir).getConnection();
+			connections.add(conn);
+			assertTrue("expected more solutions after a change made with the index disabled",
+					explainRules(conn, "?ctx pr:explain (?s ?p ?o)", x, RDF.TYPE, c).size() > explained.size());
+			assertEquals("inferencer calls after a change made with the index disabled", 1L,
+					readStats(conn).get("isSupportedCalls").longValue());
+		} finally {
+			System.clearProperty(ProvenanceIndex.ENABLED_PROPERTY);
+		}
+	}
+
+	private static Map<String, Long> readStats(RepositoryConnection conn) {
+		HashMap<String, Long> stats = new HashMap<String, Long>();
+		TupleQueryResult res = conn.prepareTupleQuery("PREFIX pr: <http://www.ontotext.com/proof/>\n" +
+				"select ?name ?value { ?name pr:stats ?value }").evaluate();
+		try {
+			while (res.hasNext()) {
+				BindingSet bs = res.next();
+				stats.put(bs.getValue("name").stringValue(), Long.valueOf(bs.getValue("value").stringValue()));
+			}
+		} finally {
+			res.close();
+		}
+		return stats;
+	}
+
+	private static ArrayList<String> collectRows(RepositoryConnection conn, String query) {
+		ArrayList<String> rows = new ArrayList<String>();
+		TupleQueryResult res = conn.prepareTupleQuery(query).evaluate();
+		try {
+			while (res.hasNext()) {
+				BindingSet bs = res.next();
+				StringBuilder row = new StringBuilder();
+				for (String name : new String[] {"hs", "hp", "ho", "rule", "subj", "pred", "obj"})
+					row.append(bs.getValue(name)).append(' ');
+				rows.add(row.toString());
+			}
+		} finally {
+			res.close();
+		}
+		return rows;
+	}
+
+	private static int countExplainRows(RepositoryConnection conn, Value s, Value p, Value o) {
+		return countExplainRows(conn, "?ctx pr:explain (?s ?p ?o)", s, p, o);
+	}
+
+	private static int countExplainRows(RepositoryConnection conn, String explainPattern, Value s, Value p, Value o) {
+		TupleQuery query = conn.prepareTupleQuery("PREFIX pr: <http://www.ontotext.com/proof/>\n" +
+				"select ?rule ?subj ?pred ?obj ?context {\n" +
+				"     " + explainPattern + " .\n" +
+				"     ?ctx pr:rule ?rule .\n" +
+				"     ?ctx pr:subject ?subj .\n" +
+				"     ?ctx pr:predicate ?pred .\n" +
+				"     ?ctx pr:object ?obj .\n" +
+				"     ?ctx pr:context ?context .\n" +
+				"}");
+		query.setBinding("s", s);
+		query.setBinding("p", p);
+		query.setBinding("o", o);
+		int count = 0;
+		TupleQueryResult res = query.evaluate();
+		try {
+			while (res.hasNext()) {
+				res.next();
+				count++;
+			}
+		} finally {
+			res.close();
+		}
+		return count;
+	}
+}
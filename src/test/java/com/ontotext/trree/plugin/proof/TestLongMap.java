@@ -0,0 +1,53 @@
+package com.ontotext.trree.plugin.proof;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.util.HashMap;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class TestLongMap {
+	@Test
+	public void testPutGetRemove() {
+		LongMap<String> map = new LongMap<String>();
+		map.put(1, "a");
+		map.put(-5, "b");
+		map.put(1, "c");
+		assertEquals(2, map.size());
+		assertEquals("c", map.get(1));
+		assertEquals("b", map.get(-5));
+		assertNull(map.get(2));
+		assertEquals("c", map.remove(1));
+		assertNull(map.remove(1));
+		assertNull(map.get(1));
+		assertEquals(1, map.size());
+	}
+
+	/**
+	 * compares a random sequence of operations with a HashMap, the keys are few so there are many collisions
+	 */
+	@Test
+	public void testRandomOperations() {
+		LongMap<Long> map = new LongMap<Long>(4);
+		HashMap<Long, Long> expected = new HashMap<Long, Long>();
+		Random random = new Random(42);
+		for (int i = 0; i < 100000; i++) {
+			long key = random.nextInt(200) - 100;
+			if (key == 0)
+				continue;
+			if (random.nextInt(3) == 0) {
+				assertEquals(expected.remove(key), map.remove(key));
+			} else {
+				expected.put(key, (long)i);
+				map.put(key, (long)i);
+			}
+			assertEquals(expected.size(), map.size());
+		}
+		for (long key = -100; key < 100; key++) {
+			if (key != 0)
+				assertEquals(expected.get(key), map.get(key));
+		}
+	}
+}
@@ -0,0 +1,61 @@
+package com.ontotext.trree.plugin.proof;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import org.junit.Test;
+
+public class TestProofCache {
+	private static SolutionStore store(int premises) {
+		SolutionStore store = new SolutionStore();
+		store.begin(2);
+		for (int i = 0; i < premises; i++)
+			store.add(i + 1, 2, 3, 0, 1);
+		store.commit();
+		store.seal();
+		return store;
+	}
+
+	/**
+	 * the least recently used entries are evicted once the solutions take more bytes than the cache may
+	 */
+	@Test
+	public void testBoundByBytes() {
+		long bytes = store(10).bytes();
+		ProofCache cache = new ProofCache(1000, 3 * bytes);
+		for (int i = 1; i <= 3; i++)
+			cache.put(i, 1, 1, store(10), cache.generation());
+		assertEquals(3, cache.size());
+		assertEquals(3 * bytes, cache.bytes());
+		// touch the first one, so the second one is the least recently used
+		assertNotNull(cache.get(1, 1, 1));
+		cache.put(4, 1, 1, store(10), cache.generation());
+		assertEquals(3, cache.size());
+		assertEquals(1, cache.getEvictions());
+		assertNull(cache.get(2, 1, 1));
+		assertNotNull(cache.get(1, 1, 1));
+
+		// solutions larger than the whole cache are not stored and evict nothing
+		cache.put(5, 1, 1, store(100), cache.generation());
+		assertNull(cache.get(5, 1, 1));
+		assertEquals(3, cache.size());
+		assertEquals(1, cache.getEvictions());
+
+		cache.transactionStarted();
+		cache.statementAdded();
+		cache.transactionCompleted();
+		assertEquals(0, cache.size());
+		assertEquals(0, cache.bytes());
+	}
+
+	@Test
+	public void testBoundBySize() {
+		ProofCache cache = new ProofCache(2, Long.MAX_VALUE);
+		for (int i = 1; i <= 5; i++)
+			cache.put(i, 1, 1, store(1), cache.generation());
+		assertEquals(2, cache.size());
+		assertEquals(3, cache.getEvictions());
+		assertEquals(2 * store(1).bytes(), cache.bytes());
+	}
+}
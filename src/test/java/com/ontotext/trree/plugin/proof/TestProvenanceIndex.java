@@ -0,0 +1,220 @@
+package com.ontotext.trree.plugin.proof;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.junit.ClassRule;
+import org.junit.Test;
+
+import com.ontotext.test.TemporaryLocalFolder;
+
+public class TestProvenanceIndex {
+	@ClassRule
+	public static TemporaryLocalFolder tmpFolder = new TemporaryLocalFolder();
+
+	private static final long FINGERPRINT = 42;
+	private static final long SAME_AS = 99;
+
+	@Test
+	public void testEntriesSurviveReopen() throws IOException {
+		File file = new File(tmpFolder.newFolder("index-reopen"), ProvenanceIndex.FILE_NAME);
+		RuleIndex rules = new RuleIndex();
+		ProvenanceIndex index = new ProvenanceIndex(file, rules, FINGERPRINT, SAME_AS);
+		index.put(1, 2, 3, solutions(rules, "rule_a", 10, 11), index.generation());
+		index.put(4, 5, 6, solutions(rules, "rule_b", 12), index.generation());
+		index.close();
+
+		// a new rule index, as after a restart, gets the rules by name
+		RuleIndex restarted = new RuleIndex();
+		restarted.intern("other");
+		index = new ProvenanceIndex(file, restarted, FINGERPRINT, SAME_AS);
+		try {
+			assertEquals(2, index.size());
+			SolutionStore read = index.get(1, 2, 3);
+			assertNotNull(read);
+			assertEquals(2, read.size());
+			assertEquals("rule_a", restarted.name(read.rule(0)));
+			assertEquals(4, read.premiseCount());
+			assertEquals(11, read.get(2, SolutionStore.SUBJ));
+			assertEquals(7, read.get(3, SolutionStore.CONTEXT));
+			assertEquals("rule_b", restarted.name(index.get(4, 5, 6).rule(0)));
+			assertNull(index.get(1, 2, 4));
+		} finally {
+			index.close();
+		}
+	}
+
+	@Test
+	public void testChangesDropEntries() throws IOException {
+		File file = new File(tmpFolder.newFolder("index-changes"), ProvenanceIndex.FILE_NAME);
+		RuleIndex rules = new RuleIndex();
+		ProvenanceIndex index = new ProvenanceIndex(file, rules, FINGERPRINT, SAME_AS);
+		try {
+			index.put(1, 2, 3, solutions(rules, "rule_a", 10), index.generation());
+			index.put(4, 5, 6, solutions(rules, "rule_a", 11), index.generation());
+
+			// nothing is stored while a transaction is in progress
+			long generation = index.generation();
+			index.transactionStarted();
+			index.put(7, 8, 9, solutions(rules, "rule_a", 12), generation);
+			// the premise (10 1 2) of the first entry is removed
+			index.statementRemoved(10, 1, 2);
+			index.transactionCompleted(FINGERPRINT);
+			assertNull(index.get(7, 8, 9));
+			assertNull(index.get(1, 2, 3));
+			assertNotNull(index.get(4, 5, 6));
+			// a solution computed before the transaction is not stored
+			index.put(7, 8, 9, solutions(rules, "rule_a", 12), generation);
+			assertNull(index.get(7, 8, 9));
+			index.close();
+
+			// the removal has been persisted
+			index = new ProvenanceIndex(file, rules, FINGERPRINT, SAME_AS);
+			assertEquals(1, index.size());
+			assertNull(index.get(1, 2, 3));
+
+			// an added statement drops the entries of the statements it shares a node with
+			index.transactionStarted();
+			index.statementAdded(50, 51, 52);
+			index.transactionCompleted(FINGERPRINT);
+			assertNotNull(index.get(4, 5, 6));
+			index.transactionStarted();
+			index.statementAdded(60, 61, 6);
+			index.transactionCompleted(FINGERPRINT);
+			assertNull(index.get(4, 5, 6));
+			// or just its predicate, as (y rdf:type D) may derive (x rdf:type C)
+			index.put(4, 5, 6, solutions(rules, "rule_a", 11), index.generation());
+			index.transactionStarted();
+			index.statementAdded(70, 5, 71);
+			index.transactionCompleted(FINGERPRINT);
+			assertNull(index.get(4, 5, 6));
+			// while an owl:sameAs head may be derived from statements it shares no node with
+			index.put(4, SAME_AS, 6, solutions(rules, "rule_a", 11), index.generation());
+			index.transactionStarted();
+			index.statementAdded(80, 81, 82);
+			index.transactionCompleted(FINGERPRINT);
+			assertNull(index.get(4, SAME_AS, 6));
+
+			// a removed statement drops only the entries that use it
+			index.put(1, 2, 3, solutions(rules, "rule_a", 10), index.generation());
+			index.put(3, 2, 1, solutions(rules, "rule_a", 11), index.generation());
+			index.transactionStarted();
+			index.statementRemoved(10, 3, 4);
+			index.transactionCompleted(FINGERPRINT);
+			assertNull(index.get(1, 2, 3));
+			assertNotNull(index.get(3, 2, 1));
+			// also if it shares no node with the statement
+			index.put(20, 21, 22, solutions(rules, "rule_a", 30), index.generation());
+			index.transactionStarted();
+			index.statementRemoved(30, 3, 4);
+			index.transactionCompleted(FINGERPRINT);
+			assertNull(index.get(20, 21, 22));
+			assertNotNull(index.get(3, 2, 1));
+
+			index.transactionStarted();
+			index.invalidateAll();
+			index.transactionCompleted(FINGERPRINT);
+			assertEquals(0, index.size());
+		} finally {
+			index.close();
+		}
+	}
+
+	/**
+	 * the index grows past its initial mapping and reads back all its entries, also after a restart
+	 */
+	@Test
+	public void testGrow() throws IOException {
+		File file = new File(tmpFolder.newFolder("index-grow"), ProvenanceIndex.FILE_NAME);
+		RuleIndex rules = new RuleIndex();
+		ProvenanceIndex index = new ProvenanceIndex(file, rules, FINGERPRINT, SAME_AS);
+		int count = 20000;
+		for (int i = 0; i < count; i++)
+			index.put(i, 2, 3, solutions(rules, "rule_a", i + 100), index.generation());
+		assertTrue("expected the mapping to grow", file.length() > 1 << 20);
+		index.close();
+		index = new ProvenanceIndex(file, rules, FINGERPRINT, SAME_AS);
+		try {
+			assertEquals(count, index.size());
+			for (int i = 0; i < count; i += 997)
+				assertEquals(i + 100, index.get(i, 2, 3).get(0, SolutionStore.SUBJ));
+		} finally {
+			index.close();
+		}
+	}
+
+	/**
+	 * a file that has been changed and not closed may miss some of its records, so it is started over
+	 */
+	@Test
+	public void testNotClosedCleanly() throws IOException {
+		File file = new File(tmpFolder.newFolder("index-dirty"), ProvenanceIndex.FILE_NAME);
+		RuleIndex rules = new RuleIndex();
+		ProvenanceIndex index = new ProvenanceIndex(file, rules, FINGERPRINT, SAME_AS);
+		index.put(1, 2, 3, solutions(rules, "rule_a", 10), index.generation());
+		index.close();
+
+		// opened and read only, it stays clean
+		index = new ProvenanceIndex(file, rules, FINGERPRINT, SAME_AS);
+		assertNotNull(index.get(1, 2, 3));
+		index.close();
+
+		ProvenanceIndex crashed = new ProvenanceIndex(file, rules, FINGERPRINT, SAME_AS);
+		crashed.put(4, 5, 6, solutions(rules, "rule_a", 11), crashed.generation());
+		index = new ProvenanceIndex(file, rules, FINGERPRINT, SAME_AS);
+		try {
+			assertEquals(0, index.size());
+		} finally {
+			index.close();
+			crashed.close();
+		}
+	}
+
+	/**
+	 * the entries written for another state of the repository are dropped, as it may have changed while the index
+	 * has not been following it
+	 */
+	@Test
+	public void testFingerprint() throws IOException {
+		File file = new File(tmpFolder.newFolder("index-fingerprint"), ProvenanceIndex.FILE_NAME);
+		RuleIndex rules = new RuleIndex();
+		ProvenanceIndex index = new ProvenanceIndex(file, rules, FINGERPRINT, SAME_AS);
+		index.put(1, 2, 3, solutions(rules, "rule_a", 10), index.generation());
+		// a transaction the index has followed
+		index.transactionStarted();
+		index.statementAdded(50, 51, 52);
+		index.transactionCompleted(FINGERPRINT + 1);
+		index.close();
+
+		index = new ProvenanceIndex(file, rules, FINGERPRINT + 1, SAME_AS);
+		assertEquals(1, index.size());
+		index.close();
+
+		index = new ProvenanceIndex(file, rules, FINGERPRINT + 2, SAME_AS);
+		try {
+			assertEquals(0, index.size());
+		} finally {
+			index.close();
+		}
+	}
+
+	/**
+	 * @return a solution per subject, each with premises (subject 1 2) and (subject 3 4)
+	 */
+	private static SolutionStore solutions(RuleIndex rules, String rule, long... subjects) {
+		SolutionStore store = new SolutionStore();
+		for (long subject : subjects) {
+			store.begin(rules.intern(rule));
+			store.add(subject, 1, 2, 7, 1);
+			store.add(subject, 3, 4, 7, 1);
+			store.commit();
+		}
+		store.seal();
+		return store;
+	}
+}
@@ -0,0 +1,45 @@
+package com.ontotext.trree.plugin.proof;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+
+public class TestRuleIndex {
+	@Test
+	public void testRuleIndex() {
+		RuleIndex rules = new RuleIndex();
+		assertEquals(RuleIndex.EXPLICIT_NAME, rules.name(RuleIndex.EXPLICIT));
+		assertEquals(RuleIndex.SAME_AS, rules.intern(RuleIndex.SAME_AS_NAME));
+		int id = rules.intern("rdfs2");
+		assertEquals(id, rules.intern("rdfs2"));
+		assertEquals("rdfs2", rules.name(id));
+		assertEquals(3, rules.size());
+	}
+
+	@Test
+	public void testRuleCatalog() {
+		RuleIndex rules = new RuleIndex();
+		int id = rules.intern("rdfs9");
+		assertEquals(id, rules.id("rdfs9"));
+		assertEquals(-1, rules.id("rdfs11"));
+		assertEquals(0, rules.maxPremises(id));
+		rules.observed(id, 20, 2);
+		rules.observed(id, 10, 2);
+		rules.observed(id, 20, 3);
+		assertTrue(rules.derives(id, 10));
+		assertTrue(rules.derives(id, 20));
+		assertFalse(rules.derives(id, 30));
+		assertTrue(Arrays.equals(new long[] {10, 20}, rules.heads(id)));
+		assertEquals(2, rules.minPremises(id));
+		assertEquals(3, rules.maxPremises(id));
+		// a rule with a variable predicate in its head records a bounded number of them
+		int any = rules.intern("rdfs7");
+		for (int pred = 1; pred <= RuleIndex.MAX_HEADS + 10; pred++)
+			rules.observed(any, pred, 2);
+		assertEquals(RuleIndex.MAX_HEADS, rules.heads(any).length);
+	}
+}
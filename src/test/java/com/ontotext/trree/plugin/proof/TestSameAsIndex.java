@@ -0,0 +1,70 @@
+package com.ontotext.trree.plugin.proof;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+
+public class TestSameAsIndex {
+	private static final long SAME_AS = 100;
+
+	@Test
+	public void testClasses() {
+		SameAsIndex index = new SameAsIndex(SAME_AS);
+		// 1 = 2 = 3 and 4 = 5
+		index.link(1, 2, 0, 0);
+		index.link(3, 2, 0, 0);
+		index.link(4, 5, 0, 0);
+		index.collectMembers();
+		assertEquals(index.find(1), index.find(3));
+		assertTrue(index.find(1) != index.find(4));
+		assertEquals(7, index.find(7));
+		long[] members = index.members(2).clone();
+		Arrays.sort(members);
+		assertTrue(Arrays.equals(new long[] {1, 2, 3}, members));
+		assertTrue(Arrays.equals(new long[] {7}, index.members(7)));
+	}
+
+	@Test
+	public void testChain() {
+		SameAsIndex index = new SameAsIndex(SAME_AS);
+		// a path 1 - 2 - 3 - 4 with a shortcut 4 - 1 and a separate class 5 - 6
+		index.link(1, 2, 10, 1);
+		index.link(2, 3, 10, 1);
+		index.link(3, 4, 10, 1);
+		index.link(4, 1, 11, 1);
+		index.link(5, 6, 10, 1);
+		index.collectMembers();
+
+		SolutionStore store = new SolutionStore();
+		store.begin(RuleIndex.SAME_AS);
+		assertTrue(index.chain(1, 3, store));
+		store.commit();
+		assertEquals(2, store.premiseCount());
+		// the statements are added as they are, whatever the direction they are followed in
+		assertEquals(1, store.get(0, SolutionStore.SUBJ));
+		assertEquals(SAME_AS, store.get(0, SolutionStore.PRED));
+		assertEquals(2, store.get(0, SolutionStore.OBJ));
+		assertEquals(2, store.get(1, SolutionStore.SUBJ));
+		assertEquals(3, store.get(1, SolutionStore.OBJ));
+
+		store.begin(RuleIndex.SAME_AS);
+		assertTrue(index.chain(1, 4, store));
+		store.commit();
+		assertEquals("the shortcut is taken", 1, store.end(1) - store.start(1));
+		int p = store.start(1);
+		assertEquals(4, store.get(p, SolutionStore.SUBJ));
+		assertEquals(1, store.get(p, SolutionStore.OBJ));
+		assertEquals(11, store.get(p, SolutionStore.CONTEXT));
+
+		store.begin(RuleIndex.SAME_AS);
+		assertTrue("nothing to add for the same entity", index.chain(3, 3, store));
+		assertFalse(index.chain(1, 5, store));
+		assertFalse(index.chain(7, 1, store));
+		store.commit();
+		assertEquals(0, store.end(2) - store.start(2));
+	}
+}
@@ -0,0 +1,200 @@
+package com.ontotext.trree.plugin.proof;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+
+import org.junit.Assume;
+import org.junit.ClassRule;
+import org.junit.Test;
+
+import com.ontotext.test.TemporaryLocalFolder;
+
+public class TestSolutionStore {
+	@ClassRule
+	public static TemporaryLocalFolder tmpFolder = new TemporaryLocalFolder();
+
+	private static final int SOLUTIONS = 1000;
+	private static final int PREMISES = 3;
+
+	@Test
+	public void testDistinctIgnoresPremiseOrder() {
+		SolutionStore store = new SolutionStore();
+		add(store, 1, new long[] {1, 2, 3}, new long[] {4, 5, 6});
+		add(store, 1, new long[] {4, 5, 6}, new long[] {1, 2, 3});
+		add(store, 2, new long[] {4, 5, 6}, new long[] {1, 2, 3});
+		add(store, 1, new long[] {1, 2, 3}, new long[] {1, 2, 3});
+		add(store, 1, new long[] {1, 2, 3}, new long[] {4, 5, 6});
+		int kept = 0;
+		for (int i = 0; i < store.size(); i++) {
+			if (store.keepDistinct(i, kept))
+				kept++;
+		}
+		store.truncate(kept);
+		store.seal();
+		// same rule with the premises swapped and the repeated solution are dropped
+		assertEquals(3, store.size());
+		assertEquals(1, store.rule(0));
+		assertEquals(2, store.rule(1));
+		assertEquals(1, store.rule(2));
+		// the kept solutions are compacted
+		assertEquals(6, store.premiseCount());
+		assertEquals(4, store.get(store.start(1), SolutionStore.SUBJ));
+		assertEquals(1, store.get(store.start(2), SolutionStore.SUBJ));
+		assertEquals(1, store.get(store.end(2) - 1, SolutionStore.SUBJ));
+	}
+
+	@Test
+	public void testRollbackAndTruncate() {
+		SolutionStore store = new SolutionStore();
+		add(store, 1, new long[] {1, 2, 3});
+		store.begin(2);
+		store.add(7, 8, 9, 0, 0);
+		store.rollback();
+		add(store, 3, new long[] {4, 5, 6});
+		assertEquals(2, store.size());
+		assertEquals(3, store.rule(1));
+		assertEquals(4, store.get(store.start(1), SolutionStore.SUBJ));
+		assertTrue(store.keepDistinct(0, 0));
+		assertTrue(store.keepDistinct(1, 1));
+		store.truncate(1);
+		assertEquals(1, store.size());
+		assertEquals(1, store.premiseCount());
+	}
+
+	@Test
+	public void testResetAndCopy() {
+		SolutionStore store = new SolutionStore();
+		add(store, 1, new long[] {1, 2, 3}, new long[] {4, 5, 6});
+		assertTrue(store.keepDistinct(0, 0));
+		SolutionStore copy = store.copy();
+		store.reset();
+		assertEquals(0, store.size());
+		// the same solution is distinct from the ones before the reset
+		add(store, 1, new long[] {1, 2, 3}, new long[] {4, 5, 6});
+		assertTrue(store.keepDistinct(0, 0));
+		add(store, 2, new long[] {7, 8, 9});
+		assertTrue(store.keepDistinct(1, 1));
+		// the copy does not change with the store
+		assertEquals(1, copy.size());
+		assertEquals(2, copy.premiseCount());
+		assertEquals(4, copy.get(1, SolutionStore.SUBJ));
+		assertEquals(2, store.size());
+	}
+
+	@Test
+	public void testSpill() throws IOException {
+		SolutionStore store = new SolutionStore();
+		SolutionStore spilled = new SolutionStore();
+		for (int i = 0; i < SOLUTIONS; i++) {
+			add(store, i % 3, new long[] {i, i + 1, i + 2}, new long[] {i + 3, i + 4, i + 5});
+			add(spilled, i % 3, new long[] {i, i + 1, i + 2}, new long[] {i + 3, i + 4, i + 5});
+			// the store keeps growing in the file once it has been spilled
+			if (i == SOLUTIONS / 10)
+				spilled.spill(tmpFolder.newFolder("spill"));
+		}
+		assertTrue(spilled.isSpilled());
+		assertEquals(SOLUTIONS * 12, spilled.heapBytes());
+		// the repeated solutions are dropped off the heap too
+		add(spilled, 0, new long[] {3, 4, 5}, new long[] {0, 1, 2});
+		int kept = 0;
+		for (int i = 0; i < spilled.size(); i++) {
+			if (spilled.keepDistinct(i, kept))
+				kept++;
+		}
+		spilled.truncate(kept);
+		store.markPartial();
+		spilled.markPartial();
+		spilled.seal();
+		assertTrue(spilled.isPartial());
+		assertEquals(store.size(), spilled.size());
+		assertEquals(store.premiseCount(), spilled.premiseCount());
+		for (int i = 0; i < store.size(); i++) {
+			assertEquals(store.rule(i), spilled.rule(i));
+			assertEquals(store.start(i), spilled.start(i));
+			assertEquals(store.end(i), spilled.end(i));
+		}
+		for (int p = 0; p < store.premiseCount(); p++) {
+			for (int f = 0; f < SolutionStore.WIDTH; f++)
+				assertEquals(store.get(p, f), spilled.get(p, f));
+		}
+		// a single solution can be taken back to the heap
+		SolutionStore single = spilled.solution(7);
+		assertEquals(7, single.get(0, SolutionStore.SUBJ));
+		assertEquals(12, single.get(1, SolutionStore.OBJ));
+		// and so can all of them
+		SolutionStore copy = spilled.copy();
+		assertFalse(copy.isSpilled());
+		assertEquals(store.get(store.premiseCount() - 1, SolutionStore.OBJ), copy.get(copy.premiseCount() - 1, SolutionStore.OBJ));
+	}
+
+	@Test
+	public void testExplicit() {
+		SolutionStore store = SolutionStore.explicit(1, 2, 3, 4);
+		assertEquals(1, store.size());
+		assertEquals(RuleIndex.EXPLICIT, store.rule(0));
+		assertEquals(4, store.get(0, SolutionStore.CONTEXT));
+	}
+
+	/**
+	 * compares the bytes allocated to collect the same solutions in a store and in a list of arrays per solution
+	 */
+	@Test
+	public void testAllocations() {
+		java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+		Assume.assumeTrue(bean instanceof com.sun.management.ThreadMXBean);
+		com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean)bean;
+		Assume.assumeTrue(threads.isThreadAllocatedMemorySupported());
+		long thread = Thread.currentThread().getId();
+		// warm up both code paths, the store grows to its size once
+		SolutionStore scratch = new SolutionStore();
+		fillStore(scratch);
+		fillLists();
+
+		long before = threads.getThreadAllocatedBytes(thread);
+		SolutionStore store = fillStore(scratch);
+		long storeBytes = threads.getThreadAllocatedBytes(thread) - before;
+
+		before = threads.getThreadAllocatedBytes(thread);
+		ArrayList<ArrayList<long[]>> lists = fillLists();
+		long listBytes = threads.getThreadAllocatedBytes(thread) - before;
+
+		assertEquals(SOLUTIONS, store.size());
+		assertEquals(SOLUTIONS, lists.size());
+		assertTrue("store: " + storeBytes + " bytes, lists: " + listBytes + " bytes", storeBytes < listBytes);
+	}
+
+	private static SolutionStore fillStore(SolutionStore store) {
+		store.reset();
+		for (int i = 0; i < SOLUTIONS; i++) {
+			store.begin(1);
+			for (int p = 0; p < PREMISES; p++)
+				store.add(i, p, i + p, 0, 0);
+			store.commit();
+			store.keepDistinct(i, i);
+		}
+		return store.copy();
+	}
+
+	private static ArrayList<ArrayList<long[]>> fillLists() {
+		ArrayList<ArrayList<long[]>> lists = new ArrayList<ArrayList<long[]>>();
+		for (int i = 0; i < SOLUTIONS; i++) {
+			ArrayList<long[]> premises = new ArrayList<long[]>();
+			for (int p = 0; p < PREMISES; p++)
+				premises.add(new long[] {i, p, i + p, 0, 0});
+			lists.add(premises);
+		}
+		return lists;
+	}
+
+	private static void add(SolutionStore store, int rule, long[]... premises) {
+		store.begin(rule);
+		for (long[] premise : premises)
+			store.add(premise[0], premise[1], premise[2], 0, 0);
+		store.commit();
+	}
+}